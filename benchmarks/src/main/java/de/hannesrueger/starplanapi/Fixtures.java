@@ -0,0 +1,50 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Loads the recorded responses in src/main/resources/fixtures
+ * @author Hannes Rüger
+ */
+class Fixtures {
+    private Fixtures() {
+    }
+
+    static byte[] bytes(String name) {
+        try (InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Unknown fixture " + name);
+            }
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static String string(String name) {
+        return new String(bytes(name), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Builds a calendar with copies times the events of the given calendar,
+     * with unique UIDs. Used for calendars too large to check in.
+     * @param name fixture to copy the events from
+     * @param copies
+     */
+    static String repeatedCalendar(String name, int copies) {
+        String ical = string(name);
+        int first = ical.indexOf("BEGIN:VEVENT");
+        int last = ical.lastIndexOf("END:VEVENT") + "END:VEVENT\r\n".length();
+        String events = ical.substring(first, last);
+        StringBuilder sb = new StringBuilder(ical.length() * copies);
+        sb.append(ical, 0, first);
+        for (int i = 0; i < copies; i++) {
+            sb.append(events.replace("UID:splan-", "UID:copy" + i + "-splan-"));
+        }
+        sb.append(ical, last, ical.length());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,63 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IcalParser on a small, a medium (one group, one semester) and a very large
+ * calendar (the medium one repeated 20 times), sequentially and in chunks
+ * @author Hannes Rüger
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IcalParserBenchmark {
+    @Param({ "small", "medium", "large" })
+    public String calendar;
+
+    private String ical;
+    private byte[] icalBytes;
+
+    @Setup
+    public void setup() {
+        ical = calendar.equals("large") ? Fixtures.repeatedCalendar("medium.ics", 20)
+                : Fixtures.string(calendar + ".ics");
+        icalBytes = ical.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public StarPlanLesson[] parseString() {
+        return new IcalParser().parse(ical);
+    }
+
+    @Benchmark
+    public StarPlanLesson[] parseStream() throws IOException {
+        return new IcalParser().parse(new ByteArrayInputStream(icalBytes));
+    }
+
+    /**
+     * The calendar split into chunks parsed on the common ForkJoinPool
+     */
+    @Benchmark
+    public IcalBulkParser.Lessons parseBulk() {
+        return new IcalBulkParser().parse(Map.of(1, icalBytes));
+    }
+}
@@ -0,0 +1,55 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JSON to entity mapping of getSemesters, getStudyPrograms and getGroups,
+ * from the response body to the entity array
+ * @author Hannes Rüger
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonMappingBenchmark {
+    private byte[] semesters;
+    private byte[] studyPrograms;
+    private byte[] groups;
+
+    @Setup
+    public void setup() {
+        semesters = Fixtures.bytes("getpus.json");
+        studyPrograms = Fixtures.bytes("getogs.json");
+        groups = Fixtures.bytes("getPgsExt.json");
+    }
+
+    @Benchmark
+    public StarPlanSemester[] semesters() throws IOException {
+        return StarPlan.parseSemesters(new ByteArrayInputStream(semesters));
+    }
+
+    @Benchmark
+    public StarPlanStudyProgram[] studyPrograms() throws IOException {
+        return StarPlan.parseStudyPrograms(new ByteArrayInputStream(studyPrograms));
+    }
+
+    @Benchmark
+    public StarPlanGroup[] groups() throws IOException {
+        return StarPlan.parseGroups(new ByteArrayInputStream(groups));
+    }
+}
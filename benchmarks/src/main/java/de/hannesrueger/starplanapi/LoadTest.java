@@ -0,0 +1,335 @@
+package de.hannesrueger.starplanapi;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load test of the StarPlan client against a StarPlanStubServer
+ * in the same JVM. Many callers share one transport, each caller logs in
+ * with a session of its own and runs the operations of a scenario in a
+ * loop. After a warmup the throughput, latency percentiles, errors and the
+ * allocation of the client threads are reported.
+ *
+ *     java -cp benchmarks/target/benchmarks.jar de.hannesrueger.starplanapi.LoadTest
+ *         --callers=64 --seconds=30 --groups=5000 --latency=5-40 --error-rate=0.01 --gzip=true --scenario=mixed
+ *
+ * Options: callers (32), seconds measured (20), warmup seconds (5), groups
+ * of the stub (2000), latency range in ms (5-20), share of requests failing
+ * with 503 (0), gzip compressed responses (false) and the scenario: catalog,
+ * ical, week, my_timetable or mixed. A caller which cannot log in after a
+ * few attempts drops out, the test stops if no caller is left.
+ *
+ * @author Hannes Rüger
+ */
+public class LoadTest {
+    enum Scenario {
+        /**
+         * getSemesters, getStudyPrograms and getGroups
+         */
+        CATALOG,
+        /**
+         * getTimeTableIcal of a random group
+         */
+        ICAL,
+        /**
+         * getTimeTableWeek of a random group
+         */
+        WEEK,
+        /**
+         * loadMyTimetable of the caller
+         */
+        MY_TIMETABLE,
+        /**
+         * a random operation of the other scenarios
+         */
+        MIXED
+    }
+
+    private final int callers;
+    private final Duration warmup;
+    private final Duration duration;
+    private final Scenario scenario;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    static final int MAX_LOGIN_ATTEMPTS = 10;
+    static final Duration LOGIN_TIMEOUT = Duration.ofSeconds(60);
+
+    private final LongAdder operations = new LongAdder();
+    private final LongAdder failedLogins = new LongAdder();
+    private final Map<StarPlanError.Category, LongAdder> errors = new EnumMap<StarPlanError.Category, LongAdder>(
+            StarPlanError.Category.class);
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+    private StarPlanSemester semester;
+    private StarPlanStudyProgram[] studyPrograms;
+    private Map<Integer, StarPlanStudyProgram> groupPrograms;
+    private StarPlanGroup[] groups;
+
+    LoadTest(int callers, Duration warmup, Duration duration, Scenario scenario) {
+        this.callers = callers;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.scenario = scenario;
+        for (StarPlanError.Category category : StarPlanError.Category.values()) {
+            errors.put(category, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                System.err.println("Usage: LoadTest [--callers=32] [--seconds=20] [--warmup=5] [--groups=2000]"
+                        + " [--latency=5-20] [--error-rate=0] [--gzip=false] [--scenario=mixed]");
+                System.exit(1);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        int callers = Integer.parseInt(options.getOrDefault("callers", "32"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "20"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "5"));
+        int groups = Integer.parseInt(options.getOrDefault("groups", "2000"));
+        String[] latency = options.getOrDefault("latency", "5-20").split("-");
+        double errorRate = Double.parseDouble(options.getOrDefault("error-rate", "0"));
+        boolean gzip = Boolean.parseBoolean(options.getOrDefault("gzip", "false"));
+        Scenario scenario = Scenario.valueOf(options.getOrDefault("scenario", "mixed").toUpperCase(Locale.ROOT));
+
+        try (StarPlanStubServer server = new StarPlanStubServer(new InetSocketAddress("localhost", 0), groups)) {
+            server.setLatency(Duration.ofMillis(Long.parseLong(latency[0])),
+                    Duration.ofMillis(Long.parseLong(latency[latency.length - 1])));
+            server.setGzip(gzip);
+            server.start();
+            LoadTest test = new LoadTest(callers, Duration.ofSeconds(warmup), Duration.ofSeconds(seconds), scenario);
+            StarPlan starPlan = new StarPlan(server.baseUrl());
+            test.loadCatalog(starPlan);
+            server.setErrors(errorRate, 503);
+            System.out.println("Scenario " + scenario + ", " + callers + " callers, " + groups + " groups, latency "
+                    + String.join("-", latency) + " ms, error rate " + errorRate + (gzip ? ", gzip" : ""));
+            test.run(starPlan, server);
+        }
+    }
+
+    /**
+     * Runs the callers and prints the report
+     * @param starPlan client whose transport is shared by all callers
+     * @param server stub the client talks to
+     */
+    void run(StarPlan starPlan, StarPlanStubServer server) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(callers);
+        long[] allocated = new long[callers];
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int c = 0; c < callers; c++) {
+            int caller = c;
+            Thread thread = new Thread(() -> call(starPlan.newSession(), caller, ready, allocated),
+                    "load-test-" + caller);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        boolean loggedIn = ready.await(LOGIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        if (!loggedIn || failedLogins.sum() == callers) {
+            stopped = true;
+            throw new IllegalStateException(loggedIn ? "No caller could log in"
+                    : "The callers did not log in within " + LOGIN_TIMEOUT.toSeconds() + " s");
+        }
+        if (failedLogins.sum() > 0) {
+            System.out.println(failedLogins.sum() + " callers could not log in and are left out");
+        }
+        Thread.sleep(warmup.toMillis());
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long[] requests = requests(server);
+        measuring = true;
+        long started = System.nanoTime();
+        Thread.sleep(duration.toMillis());
+        measuring = false;
+        long elapsed = System.nanoTime() - started;
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long[] requestsAfter = requests(server);
+        report(elapsed, allocated, gcCount() - gcCount, gcMillis() - gcMillis, requests, requestsAfter);
+    }
+
+    /**
+     * Loads the semesters, study programs and groups the operations choose from
+     * @param starPlan
+     */
+    void loadCatalog(StarPlan starPlan) {
+        StarPlanSemester[] semesters = starPlan.getSemesters();
+        semester = semesters[0];
+        studyPrograms = starPlan.getStudyPrograms(semester);
+        groupPrograms = new HashMap<Integer, StarPlanStudyProgram>();
+        List<StarPlanGroup> all = new ArrayList<StarPlanGroup>();
+        for (StarPlanStudyProgram studyProgram : studyPrograms) {
+            for (StarPlanGroup group : starPlan.getGroups(semester, studyProgram)) {
+                all.add(group);
+                groupPrograms.put(group.id, studyProgram);
+            }
+        }
+        groups = all.toArray(new StarPlanGroup[0]);
+    }
+
+    /**
+     * Loop of one caller, only operations started while measuring are recorded
+     */
+    private void call(StarPlan starPlan, int caller, CountDownLatch ready, long[] allocated) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        Random random = new Random(caller);
+        boolean loggedIn = login(starPlan, caller);
+        if (!loggedIn) {
+            failedLogins.increment();
+        }
+        ready.countDown();
+        if (!loggedIn) {
+            return;
+        }
+        long allocatedBefore = -1;
+        while (!stopped) {
+            boolean measured = measuring;
+            if (measured && allocatedBefore < 0) {
+                allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            } else if (!measured && allocatedBefore >= 0 && allocated[caller] == 0) {
+                allocated[caller] = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+            }
+            long start = System.nanoTime();
+            StarPlanError error = run(starPlan, random);
+            long nanos = System.nanoTime() - start;
+            if (measured) {
+                latencies.record(nanos);
+                operations.increment();
+                if (error != null) {
+                    errors.get(error.category).increment();
+                }
+            }
+        }
+        if (allocatedBefore >= 0 && allocated[caller] == 0) {
+            allocated[caller] = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+        }
+    }
+
+    /**
+     * Injected errors may hit the login as well, so it is tried a few times
+     * with a growing pause
+     * @return true if the caller is logged in
+     */
+    private boolean login(StarPlan starPlan, int caller) {
+        for (int attempt = 1; attempt <= MAX_LOGIN_ATTEMPTS && !stopped; attempt++) {
+            if (starPlan.login("user" + caller, "secret")) {
+                return true;
+            }
+            try {
+                Thread.sleep(10L * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs one operation of the scenario
+     * @return the error, null if the operation succeeded
+     */
+    private StarPlanError run(StarPlan starPlan, Random random) {
+        Scenario operation = scenario != Scenario.MIXED ? scenario
+                : Scenario.values()[random.nextInt(Scenario.values().length - 1)];
+        StarPlanGroup group = groups[random.nextInt(groups.length)];
+        switch (operation) {
+            case CATALOG:
+                StarPlanResult<?> result = starPlan.getSemestersResult();
+                if (result.isOk()) {
+                    result = starPlan.getStudyProgramsResult(semester);
+                }
+                if (result.isOk()) {
+                    result = starPlan.getGroupsResult(semester, studyPrograms[random.nextInt(studyPrograms.length)]);
+                }
+                return result.error();
+            case ICAL:
+                return starPlan.getTimeTableIcalResult(semester, group).error();
+            case WEEK:
+                return starPlan.getTimeTableWeekResult(semester, groupPrograms.get(group.id), group, LocalDate.now())
+                        .error();
+            default:
+                return starPlan.loadMyTimetable().error();
+        }
+    }
+
+    private void report(long elapsedNanos, long[] allocated, long gcCount, long gcMillis, long[] requestsBefore,
+            long[] requestsAfter) {
+        long count = operations.sum();
+        long bytes = 0;
+        for (long caller : allocated) {
+            bytes += caller;
+        }
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "operations  %d in %.1f s, %.1f ops/s%n", count, seconds, count / seconds);
+        System.out.printf(Locale.ROOT, "latency ms  mean %.2f  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f%n",
+                latencies.mean() / 1e6, millis(50), millis(90), millis(99), millis(99.9),
+                latencies.max() / 1e6);
+        StringBuilder failed = new StringBuilder();
+        for (Map.Entry<StarPlanError.Category, LongAdder> error : errors.entrySet()) {
+            if (error.getValue().sum() > 0) {
+                failed.append("  ").append(error.getKey()).append(' ').append(error.getValue().sum());
+            }
+        }
+        System.out.println("errors    " + (failed.length() > 0 ? failed : "  none"));
+        // bytes allocated by the callers, without the threads of the http client and async stages
+        System.out.printf(Locale.ROOT, "allocation  callers %.1f MB/s, %.1f kB/op, gc %d collections %d ms%n",
+                bytes / seconds / 1e6, count > 0 ? bytes / 1e3 / count : 0.0, gcCount, gcMillis);
+        StringBuilder requests = new StringBuilder();
+        StarPlanEndpoint[] endpoints = StarPlanEndpoint.values();
+        for (int e = 0; e < endpoints.length; e++) {
+            long sent = requestsAfter[e] - requestsBefore[e];
+            if (sent > 0) {
+                requests.append("  ").append(endpoints[e]).append(' ').append(sent);
+            }
+        }
+        System.out.println("requests  " + requests);
+    }
+
+    private double millis(double percentile) {
+        return latencies.percentile(percentile) / 1e6;
+    }
+
+    private static long[] requests(StarPlanStubServer server) {
+        StarPlanEndpoint[] endpoints = StarPlanEndpoint.values();
+        long[] requests = new long[endpoints.length];
+        for (int e = 0; e < endpoints.length; e++) {
+            requests[e] = server.requests(endpoints[e]);
+        }
+        return requests;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,55 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StarPlanHelpers.sortEvents on shuffled lessons of the recorded calendars.
+ * Every invocation sorts a fresh copy, the copy is part of the measurement.
+ * @author Hannes Rüger
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortEventsBenchmark {
+    @Param({ "100", "1000", "10000" })
+    public int lessons;
+
+    private StarPlanLesson[] shuffled;
+
+    @Setup
+    public void setup() {
+        StarPlanLesson[] all = new IcalParser().parse(Fixtures.repeatedCalendar("medium.ics", 20));
+        List<StarPlanLesson> list = new ArrayList<StarPlanLesson>(List.of(all).subList(0, lessons));
+        Collections.shuffle(list, new Random(42));
+        shuffled = list.toArray(new StarPlanLesson[0]);
+    }
+
+    @Benchmark
+    public StarPlanLesson[] sortEvents() {
+        return StarPlanHelpers.sortEvents(shuffled.clone());
+    }
+
+    @Benchmark
+    public LessonIndex lessonIndex() {
+        return new LessonIndex(shuffled);
+    }
+}
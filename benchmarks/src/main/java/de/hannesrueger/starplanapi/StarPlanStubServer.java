@@ -0,0 +1,410 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local replacement of the StarPlan website for load tests without network
+ * access. It answers m=login, m=getpus, m=getogs, m=getPgsExt, m=getTT and
+ * /ical below /splan with the recorded responses in the fixtures, including
+ * the JSESSIONID and myview cookies. The semesters and study programs are
+ * the recorded ones, the groups are synthetic and spread over the study
+ * programs, so thousands of groups can be served. Every group has the events
+ * of medium.ics with UIDs of its own. Latency and errors can be injected,
+ * and responses can be gzip compressed on the fly like a real web server.
+ * @author Hannes Rüger
+ */
+class StarPlanStubServer implements AutoCloseable {
+    static final int FIRST_GROUP_ID = 10_000;
+
+    static {
+        // headers and body are written separately, with Nagle every small
+        // response would wait for the delayed ACK of the client
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int groups;
+    private final byte[] semesters;
+    private final int[] semesterIds;
+    private final byte[] studyPrograms;
+    private final int[] studyProgramIds;
+    private final StarPlanLecture[][] lectures;
+    private final byte[] week;
+    /**
+     * medium.ics split at the UIDs, the group id is written in between
+     */
+    private final byte[][] calendar;
+    /**
+     * rendered getPgsExt responses by study program id
+     */
+    private final Map<Integer, byte[]> groupLists = new ConcurrentHashMap<Integer, byte[]>();
+    /**
+     * JSESSIONID -> username
+     */
+    private final Map<String, String> sessions = new ConcurrentHashMap<String, String>();
+    private final Map<StarPlanEndpoint, LongAdder> requests = new EnumMap<StarPlanEndpoint, LongAdder>(
+            StarPlanEndpoint.class);
+    private final LongAdder errors = new LongAdder();
+    private volatile long minLatencyNanos;
+    private volatile long maxLatencyNanos;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile boolean gzip;
+
+    /**
+     * @param address e.g. new InetSocketAddress("localhost", 0) for a free port
+     * @param groups number of synthetic groups
+     */
+    StarPlanStubServer(InetSocketAddress address, int groups) throws IOException {
+        this.groups = groups;
+        semesters = Fixtures.bytes("getpus.json");
+        semesterIds = ids(StarPlan.parseSemesters(new ByteArrayInputStream(semesters)));
+        studyPrograms = Fixtures.bytes("getogs.json");
+        studyProgramIds = ids(StarPlan.parseStudyPrograms(new ByteArrayInputStream(studyPrograms)));
+        StarPlanGroup[] recorded = StarPlan.parseGroups(new ByteArrayInputStream(Fixtures.bytes("getPgsExt.json")));
+        lectures = new StarPlanLecture[recorded.length][];
+        for (int i = 0; i < recorded.length; i++) {
+            lectures[i] = recorded[i].lectures;
+        }
+        week = Fixtures.bytes("getTT.html");
+        String ical = Fixtures.string("medium.ics");
+        List<byte[]> parts = new ArrayList<byte[]>();
+        int from = 0;
+        int uid;
+        while ((uid = ical.indexOf("UID:", from)) >= 0) {
+            parts.add(ical.substring(from, uid + "UID:".length()).getBytes(StandardCharsets.UTF_8));
+            from = uid + "UID:".length();
+        }
+        parts.add(ical.substring(from).getBytes(StandardCharsets.UTF_8));
+        calendar = parts.toArray(new byte[0][]);
+        for (StarPlanEndpoint endpoint : StarPlanEndpoint.values()) {
+            requests.put(endpoint, new LongAdder());
+        }
+        server = HttpServer.create(address, 0);
+        AtomicInteger count = new AtomicInteger();
+        // handlers sleep for the latency, so every request needs a thread of its own
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "starplan-stub-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/splan/", this::handle);
+    }
+
+    /**
+     * Delays every response by a random time between min and max
+     * @param min
+     * @param max
+     */
+    void setLatency(Duration min, Duration max) {
+        minLatencyNanos = min.toNanos();
+        maxLatencyNanos = Math.max(max.toNanos(), minLatencyNanos);
+    }
+
+    /**
+     * Answers a share of the requests with an error status instead
+     * @param errorRate between 0 and 1
+     * @param errorStatus e.g. 503
+     */
+    void setErrors(double errorRate, int errorStatus) {
+        this.errorRate = errorRate;
+        this.errorStatus = errorStatus;
+    }
+
+    /**
+     * Compresses the responses to clients accepting gzip, disabled by default
+     * @param gzip
+     */
+    void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * @return base url for new StarPlan(...)
+     */
+    String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/splan";
+    }
+
+    int groups() {
+        return groups;
+    }
+
+    /**
+     * @param endpoint
+     * @return number of requests received for the endpoint, including injected errors
+     */
+    long requests(StarPlanEndpoint endpoint) {
+        return requests.get(endpoint).sum();
+    }
+
+    /**
+     * @return number of injected errors
+     */
+    long errors() {
+        return errors.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream in = exchange.getRequestBody()) {
+            body = in.readAllBytes();
+        }
+        URI uri = exchange.getRequestURI();
+        String url = uri.toString();
+        StarPlanEndpoint endpoint = StarPlanEndpoint.of(url);
+        requests.get(endpoint).increment();
+        try {
+            sleep();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+            return;
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.increment();
+            send(exchange, errorStatus, "text/plain", new byte[][] { "error".getBytes(StandardCharsets.UTF_8) });
+            return;
+        }
+        Map<String, String> query = query(uri.getRawQuery());
+        String session = session(exchange);
+        switch (endpoint) {
+            case LOGIN:
+                login(exchange, new String(body, StandardCharsets.UTF_8));
+                break;
+            case GETPUS:
+                String username = session != null ? sessions.get(session) : null;
+                if (username != null) {
+                    exchange.getResponseHeaders().add("Set-Cookie", "myview=" + myView(username) + "; Path=/");
+                }
+                send(exchange, 200, "application/json", new byte[][] { semesters });
+                break;
+            case GETOGS:
+                send(exchange, 200, "application/json", new byte[][] { studyPrograms });
+                break;
+            case GETPGSEXT:
+                int studyProgram = number(query.get("og"));
+                send(exchange, 200, "application/json",
+                        new byte[][] { groupLists.computeIfAbsent(studyProgram, this::groupList) });
+                break;
+            case GETTT:
+                send(exchange, 200, "text/html", new byte[][] { week });
+                break;
+            case ICAL:
+                int group = number(query.get("pgid"));
+                if (group < FIRST_GROUP_ID || group >= FIRST_GROUP_ID + groups) {
+                    send(exchange, 404, "text/plain", new byte[][] { "unknown".getBytes(StandardCharsets.UTF_8) });
+                } else {
+                    send(exchange, 200, "text/calendar", calendar(group));
+                }
+                break;
+            default:
+                send(exchange, 404, "text/plain", new byte[][] { "unknown".getBytes(StandardCharsets.UTF_8) });
+        }
+    }
+
+    /**
+     * Accepts every username with a non-empty password
+     */
+    private void login(HttpExchange exchange, String credentials) throws IOException {
+        int separator = credentials.indexOf('&');
+        boolean ok = separator > 0 && separator < credentials.length() - 1;
+        if (ok) {
+            String session = UUID.randomUUID().toString().replace("-", "");
+            sessions.put(session, credentials.substring(0, separator));
+            exchange.getResponseHeaders().add("Set-Cookie", "JSESSIONID=" + session + "; Path=/splan; HttpOnly");
+        }
+        String json = "[[{\"res\":\"" + (ok ? "ok" : "error") + "\"}]]";
+        send(exchange, 200, "application/json", new byte[][] { json.getBytes(StandardCharsets.UTF_8) });
+    }
+
+    /**
+     * Every user has a fixed group of the first semester
+     */
+    private String myView(String username) {
+        int group = Math.floorMod(username.hashCode(), groups);
+        int studyProgram = studyProgramIds[group % studyProgramIds.length];
+        return "lan%3Dde%26acc%3Dtrue%26act%3Dtt%26sel%3Dpg%26pu%3D" + semesterIds[0] + "%26og%3D" + studyProgram
+                + "%26pg%3D" + shortname(FIRST_GROUP_ID + group) + "%26sd%3Dtrue%26loc%3D1%26sa%3Dfalse%26cb%3Do";
+    }
+
+    /**
+     * Group i belongs to the study program i modulo the number of study programs
+     */
+    private byte[] groupList(int studyProgram) {
+        int index = -1;
+        for (int i = 0; i < studyProgramIds.length; i++) {
+            if (studyProgramIds[i] == studyProgram) {
+                index = i;
+            }
+        }
+        StringBuilder json = new StringBuilder("[[");
+        for (int i = index; index >= 0 && i < groups; i += studyProgramIds.length) {
+            int id = FIRST_GROUP_ID + i;
+            if (json.length() > 2) {
+                json.append(',');
+            }
+            json.append("{\"id\":").append(id).append(",\"name\":\"Gruppe ").append(id)
+                    .append("\",\"shortname\":\"").append(shortname(id)).append("\",\"lectures\":[");
+            StarPlanLecture[] groupLectures = lectures[i % lectures.length];
+            for (int l = 0; l < groupLectures.length; l++) {
+                json.append(l > 0 ? "," : "").append("{\"id\":").append(groupLectures[l].id)
+                        .append(",\"name\":\"").append(escape(groupLectures[l].name))
+                        .append("\",\"shortname\":\"").append(escape(groupLectures[l].shortname)).append("\"}");
+            }
+            json.append("]}");
+        }
+        return json.append("]]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the parts of the calendar of a group, with UIDs unique to the group
+     */
+    private byte[][] calendar(int group) {
+        byte[] prefix = ("g" + group + "-").getBytes(StandardCharsets.UTF_8);
+        byte[][] parts = new byte[calendar.length * 2 - 1][];
+        for (int i = 0; i < calendar.length; i++) {
+            parts[i * 2] = calendar[i];
+            if (i + 1 < calendar.length) {
+                parts[i * 2 + 1] = prefix;
+            }
+        }
+        return parts;
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static String shortname(int group) {
+        return "G" + group;
+    }
+
+    private void sleep() throws InterruptedException {
+        long min = minLatencyNanos;
+        long max = maxLatencyNanos;
+        long nanos = max > min ? ThreadLocalRandom.current().nextLong(min, max + 1) : min;
+        if (nanos > 0) {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[][] parts) throws IOException {
+        long length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType + ";charset=UTF-8");
+        boolean compress = gzip && acceptsGzip(exchange);
+        if (compress) {
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        // the compressed length is unknown up front, 0 sends the body chunked
+        exchange.sendResponseHeaders(status, compress ? 0 : length);
+        try (OutputStream out = compress ? new GZIPOutputStream(exchange.getResponseBody(), 8192)
+                : exchange.getResponseBody()) {
+            for (byte[] part : parts) {
+                out.write(part);
+            }
+        }
+    }
+
+    private static boolean acceptsGzip(HttpExchange exchange) {
+        for (String encodings : exchange.getRequestHeaders().getOrDefault("Accept-Encoding", new ArrayList<String>())) {
+            for (String encoding : encodings.split(",")) {
+                if (encoding.trim().toLowerCase(Locale.ROOT).startsWith("gzip")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String session(HttpExchange exchange) {
+        for (String cookies : exchange.getRequestHeaders().getOrDefault("Cookie", new ArrayList<String>())) {
+            for (String cookie : cookies.split(";")) {
+                cookie = cookie.trim();
+                if (cookie.startsWith("JSESSIONID=")) {
+                    return cookie.substring("JSESSIONID=".length());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<String, String> query(String query) {
+        Map<String, String> parameters = new HashMap<String, String>();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            if (equals > 0) {
+                parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+            }
+        }
+        return parameters;
+    }
+
+    private static int number(String value) {
+        try {
+            return value != null ? Integer.parseInt(value) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int[] ids(StarPlanSemester[] semesters) {
+        int[] ids = new int[semesters.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = semesters[i].id;
+        }
+        return ids;
+    }
+
+    private static int[] ids(StarPlanStudyProgram[] studyPrograms) {
+        int[] ids = new int[studyPrograms.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = studyPrograms[i].id;
+        }
+        return ids;
+    }
+}
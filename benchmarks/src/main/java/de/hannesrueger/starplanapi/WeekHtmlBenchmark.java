@@ -0,0 +1,44 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of the getTT week view used by getTimeTableWeek
+ * @author Hannes Rüger
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WeekHtmlBenchmark {
+    private String html;
+
+    @Setup
+    public void setup() {
+        html = Fixtures.string("getTT.html");
+    }
+
+    @Benchmark
+    public List<String> parseWeek() {
+        return StarPlan.parseTimeTableWeekHtml(html);
+    }
+
+    @Benchmark
+    public StarPlanWeekLesson[] scanWeek() {
+        return new WeekHtmlParser().parse(html);
+    }
+}
@@ -0,0 +1,274 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+/**
+ * Finds overlapping lessons of a LessonStore, e.g. a room or lecturer booked
+ * twice or two lectures of a personal timetable at the same time. The
+ * lessons are split into partitions, one per room, lecturer or selection,
+ * and every partition is swept once in start order: a lesson overlaps
+ * exactly the earlier lessons which have not ended yet. This costs
+ * n log n plus the number of conflicts instead of comparing all pairs.
+ * Partitions are swept in parallel on a ForkJoinPool. A lesson shared by
+ * several groups is stored once per group; only its first copy (same UID
+ * and start) is swept, so a conflict is reported once and never between
+ * two copies of the same lesson.
+ * @author Hannes Rüger
+ */
+class ConflictDetector {
+    enum Partition {
+        /**
+         * Lessons sharing a room of their LOCATION
+         */
+        ROOM,
+        /**
+         * Lessons sharing a lecturer of their DESCRIPTION
+         */
+        LECTURER
+    }
+
+    /**
+     * Two overlapping lessons
+     */
+    static class Conflict {
+        /**
+         * Room or lecturer the lessons share, null for selections
+         */
+        final String key;
+        /**
+         * Index of the lesson starting first in the store
+         */
+        final int first;
+        final int second;
+        /**
+         * Start of the overlap in epoch minutes
+         */
+        final int startMinutes;
+        final int minutes;
+
+        Conflict(String key, int first, int second, int startMinutes, int minutes) {
+            this.key = key;
+            this.first = first;
+            this.second = second;
+            this.startMinutes = startMinutes;
+            this.minutes = minutes;
+        }
+
+        public String toString() {
+            return "key: " + key + " first: " + first + " second: " + second + " startMinutes: " + startMinutes
+                    + " minutes: " + minutes;
+        }
+    }
+
+    /**
+     * Partitions swept by one task without forking again
+     */
+    private static final int THRESHOLD = 16;
+
+    private final LessonStore store;
+    private final ForkJoinPool pool;
+    /**
+     * Lessons repeating the UID and start of an earlier lesson, built on first use
+     */
+    private volatile BitSet copies;
+
+    /**
+     * @param store lessons to check, uses the common ForkJoinPool
+     */
+    ConflictDetector(LessonStore store) {
+        this(store, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param store lessons to check
+     * @param pool runs the sweeps of the partitions
+     */
+    ConflictDetector(LessonStore store, ForkJoinPool pool) {
+        this.store = store;
+        this.pool = pool;
+    }
+
+    /**
+     * Finds all lessons sharing a room or lecturer at the same time
+     * @param partition
+     * @return the conflicts ordered by key and start of the overlap
+     */
+    Conflict[] conflicts(Partition partition) {
+        Map<String, List<Integer>> lessons = new TreeMap<String, List<Integer>>();
+        // a list of rooms or lecturers is split once per distinct symbol
+        Map<Integer, List<String>> keys = new HashMap<Integer, List<String>>();
+        BitSet copies = copies();
+        for (int i = 0; i < store.size(); i++) {
+            int id = partition == Partition.ROOM ? store.locationId(i) : store.lecturerId(i);
+            if (id == SymbolTable.NONE || copies.get(i)) {
+                continue;
+            }
+            List<String> names = keys.computeIfAbsent(id,
+                    symbol -> StarPlanLesson.splitList(store.symbols().get(symbol)).stream().distinct()
+                            .collect(Collectors.toList()));
+            for (String name : names) {
+                lessons.computeIfAbsent(name, n -> new ArrayList<Integer>()).add(i);
+            }
+        }
+        String[] names = lessons.keySet().toArray(new String[0]);
+        int[][] partitions = new int[names.length][];
+        for (int p = 0; p < names.length; p++) {
+            partitions[p] = lessons.get(names[p]).stream().mapToInt(Integer::intValue).toArray();
+        }
+        Conflict[][] found = pool.invoke(new SweepTask(names, partitions, 0, partitions.length));
+        return Arrays.stream(found).flatMap(Arrays::stream).toArray(Conflict[]::new);
+    }
+
+    /**
+     * Finds the overlapping lessons of one selection, e.g. a personal timetable
+     * @param lessons indices of lessons in the store, e.g. from a LessonSearchIndex
+     * @return the conflicts ordered by start of the overlap
+     */
+    Conflict[] conflicts(int[] lessons) {
+        return sweep(null, distinct(lessons));
+    }
+
+    /**
+     * Checks many selections at once, e.g. the timetables of all students
+     * @param selections indices of lessons in the store per user
+     * @return the conflicts per user, in the order of the selections
+     */
+    <K> Map<K, Conflict[]> conflictsAll(Map<K, int[]> selections) {
+        List<K> users = new ArrayList<K>(selections.keySet());
+        int[][] partitions = new int[users.size()][];
+        for (int p = 0; p < partitions.length; p++) {
+            partitions[p] = distinct(selections.get(users.get(p)));
+        }
+        Conflict[][] found = pool.invoke(new SweepTask(null, partitions, 0, partitions.length));
+        Map<K, Conflict[]> conflicts = new LinkedHashMap<K, Conflict[]>();
+        for (int p = 0; p < partitions.length; p++) {
+            conflicts.put(users.get(p), found[p]);
+        }
+        return conflicts;
+    }
+
+    /**
+     * Sweeps a range of partitions, halving it until it is small enough
+     */
+    private class SweepTask extends RecursiveTask<Conflict[][]> {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] keys;
+        private final int[][] partitions;
+        private final int from;
+        private final int to;
+
+        SweepTask(String[] keys, int[][] partitions, int from, int to) {
+            this.keys = keys;
+            this.partitions = partitions;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Conflict[][] compute() {
+            if (to - from <= THRESHOLD) {
+                Conflict[][] found = new Conflict[to - from][];
+                for (int p = from; p < to; p++) {
+                    found[p - from] = sweep(keys != null ? keys[p] : null, partitions[p]);
+                }
+                return found;
+            }
+            int middle = (from + to) >>> 1;
+            SweepTask right = new SweepTask(keys, partitions, middle, to);
+            right.fork();
+            Conflict[][] left = new SweepTask(keys, partitions, from, middle).compute();
+            Conflict[][] found = Arrays.copyOf(left, to - from);
+            System.arraycopy(right.join(), 0, found, left.length, to - middle);
+            return found;
+        }
+    }
+
+    /**
+     * Sweeps the lessons of one partition in start order. The active lessons
+     * are the ones which have not ended before the current start, every
+     * active lesson overlaps the current one.
+     */
+    private Conflict[] sweep(String key, int[] lessons) {
+        // start in the high and index in the low bits, so a plain sort orders by start
+        long[] sorted = new long[lessons.length];
+        for (int i = 0; i < lessons.length; i++) {
+            sorted[i] = (long) store.startMinutes(lessons[i]) << 32 | lessons[i];
+        }
+        Arrays.sort(sorted);
+        List<Conflict> conflicts = new ArrayList<Conflict>();
+        int[] active = new int[Math.min(sorted.length, 16)];
+        int size = 0;
+        for (long entry : sorted) {
+            int lesson = (int) entry;
+            int start = store.startMinutes(lesson);
+            int end = store.endMinutes(lesson);
+            int kept = 0;
+            for (int a = 0; a < size; a++) {
+                int other = active[a];
+                int otherEnd = store.endMinutes(other);
+                if (otherEnd <= start) {
+                    continue;
+                }
+                active[kept++] = other;
+                if (end > start) {
+                    conflicts.add(new Conflict(key, other, lesson, start, Math.min(end, otherEnd) - start));
+                }
+            }
+            size = kept;
+            if (end > start) {
+                if (size == active.length) {
+                    active = Arrays.copyOf(active, size * 2);
+                }
+                active[size++] = lesson;
+            }
+        }
+        return conflicts.toArray(new Conflict[0]);
+    }
+
+    /**
+     * @return the lessons without copies of other lessons and without repeated indices
+     */
+    private int[] distinct(int[] lessons) {
+        BitSet copies = copies();
+        BitSet seen = new BitSet(store.size());
+        int[] distinct = new int[lessons.length];
+        int size = 0;
+        for (int lesson : lessons) {
+            if (!copies.get(lesson) && !seen.get(lesson)) {
+                seen.set(lesson);
+                distinct[size++] = lesson;
+            }
+        }
+        return Arrays.copyOf(distinct, size);
+    }
+
+    private BitSet copies() {
+        BitSet found = copies;
+        if (found == null) {
+            found = new BitSet(store.size());
+            // UID in the high and start in the low bits
+            Set<Long> first = new HashSet<Long>();
+            for (int i = 0; i < store.size(); i++) {
+                int uid = store.uidId(i);
+                if (uid != SymbolTable.NONE && !first.add((long) uid << 32 | (store.startMinutes(i) & 0xFFFFFFFFL))) {
+                    found.set(i);
+                }
+            }
+            copies = found;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,293 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parses the calendars of many groups at once on a ForkJoinPool, e.g. a
+ * dump of a whole semester. Every calendar is split into chunks at lines
+ * starting with BEGIN:VEVENT, each chunk is parsed by an IcalParser of its
+ * own and sorted by start. Chunks and calendars are merged pairwise like a
+ * merge sort, so the result is one sequence ordered by start in which every
+ * lesson keeps the id of its group. Lessons with the same start stay in
+ * input order. The chunks can be parsed independently because the parser
+ * resolves TZID parameters without the VTIMEZONE components.
+ * @author Hannes Rüger
+ */
+class IcalBulkParser {
+    static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+
+    private static final byte[] BEGIN_EVENT = "BEGIN:VEVENT".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BEGIN_CALENDAR = "BEGIN:VCALENDAR".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Lessons ordered by start with the id of their group at the same index
+     */
+    static class Lessons {
+        final StarPlanLesson[] lessons;
+        final int[] groupIds;
+
+        Lessons(StarPlanLesson[] lessons, int[] groupIds) {
+            this.lessons = lessons;
+            this.groupIds = groupIds;
+        }
+
+        int size() {
+            return lessons.length;
+        }
+
+        /**
+         * @return the lessons per group in the order of the groups' first lesson, e.g. for a LessonStore.Builder
+         */
+        Map<Integer, StarPlanLesson[]> byGroup() {
+            Map<Integer, List<StarPlanLesson>> groups = new LinkedHashMap<Integer, List<StarPlanLesson>>();
+            for (int i = 0; i < lessons.length; i++) {
+                groups.computeIfAbsent(groupIds[i], id -> new ArrayList<StarPlanLesson>()).add(lessons[i]);
+            }
+            Map<Integer, StarPlanLesson[]> byGroup = new LinkedHashMap<Integer, StarPlanLesson[]>();
+            for (Map.Entry<Integer, List<StarPlanLesson>> group : groups.entrySet()) {
+                byGroup.put(group.getKey(), group.getValue().toArray(new StarPlanLesson[0]));
+            }
+            return byGroup;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int chunkBytes;
+
+    /**
+     * Uses the common ForkJoinPool
+     */
+    IcalBulkParser() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * @param pool parses the chunks
+     * @param chunkBytes calendars larger than this are split, unless there
+     *            are enough calendars to keep the pool busy anyway
+     */
+    IcalBulkParser(ForkJoinPool pool, int chunkBytes) {
+        this.pool = pool;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /**
+     * Parses the calendars of many groups
+     * @param calendars UTF-8 encoded ical body per group id
+     * @return all lessons ordered by start
+     */
+    Lessons parse(Map<Integer, byte[]> calendars) {
+        int[] groupIds = new int[calendars.size()];
+        byte[][] bodies = new byte[calendars.size()][];
+        int i = 0;
+        for (Map.Entry<Integer, byte[]> calendar : calendars.entrySet()) {
+            groupIds[i] = calendar.getKey();
+            bodies[i++] = calendar.getValue();
+        }
+        int[] starts = new int[bodies.length];
+        int[] ends = new int[bodies.length];
+        for (int c = 0; c < bodies.length; c++) {
+            ends[c] = bodies[c].length;
+        }
+        return pool.invoke(new CalendarsTask(bodies, starts, ends, groupIds, 0, bodies.length,
+                chunkBytes(starts, ends)));
+    }
+
+    /**
+     * Parses one export containing several calendars one after another
+     * @param export UTF-8 encoded VCALENDARs
+     * @param groupIds id of the group of each VCALENDAR, in export order
+     * @return all lessons ordered by start
+     */
+    Lessons parseExport(byte[] export, int[] groupIds) {
+        List<Integer> starts = new ArrayList<Integer>();
+        for (int pos = lineStart(export, BEGIN_CALENDAR, 0, export.length); pos >= 0;
+                pos = lineStart(export, BEGIN_CALENDAR, pos + 1, export.length)) {
+            starts.add(pos);
+        }
+        if (starts.size() != groupIds.length) {
+            throw new IllegalArgumentException("The export contains " + starts.size() + " calendars, "
+                    + groupIds.length + " group ids given");
+        }
+        byte[][] bodies = new byte[groupIds.length][];
+        int[] from = new int[groupIds.length];
+        int[] to = new int[groupIds.length];
+        for (int c = 0; c < groupIds.length; c++) {
+            bodies[c] = export;
+            from[c] = starts.get(c);
+            to[c] = c + 1 < groupIds.length ? starts.get(c + 1) : export.length;
+        }
+        return pool.invoke(new CalendarsTask(bodies, from, to, groupIds, 0, groupIds.length,
+                chunkBytes(from, to)));
+    }
+
+    /**
+     * Every split costs a parser and a merge, a few chunks per thread are
+     * enough to balance the load
+     */
+    private int chunkBytes(int[] starts, int[] ends) {
+        long total = 0;
+        for (int c = 0; c < starts.length; c++) {
+            total += ends[c] - starts[c];
+        }
+        return (int) Math.min(Math.max(chunkBytes, total / (pool.getParallelism() * 4L)), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses a range of calendars by halving it
+     */
+    private static class CalendarsTask extends RecursiveTask<Lessons> {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[][] bodies;
+        private final int[] starts;
+        private final int[] ends;
+        private final int[] groupIds;
+        private final int from;
+        private final int to;
+        private final int chunkBytes;
+
+        CalendarsTask(byte[][] bodies, int[] starts, int[] ends, int[] groupIds, int from, int to,
+                int chunkBytes) {
+            this.bodies = bodies;
+            this.starts = starts;
+            this.ends = ends;
+            this.groupIds = groupIds;
+            this.from = from;
+            this.to = to;
+            this.chunkBytes = chunkBytes;
+        }
+
+        @Override
+        protected Lessons compute() {
+            if (to - from == 0) {
+                return new Lessons(new StarPlanLesson[0], new int[0]);
+            }
+            if (to - from == 1) {
+                return new ChunkTask(bodies[from], starts[from], ends[from], groupIds[from], chunkBytes).compute();
+            }
+            int middle = (from + to) >>> 1;
+            CalendarsTask right = new CalendarsTask(bodies, starts, ends, groupIds, middle, to, chunkBytes);
+            right.fork();
+            Lessons left = new CalendarsTask(bodies, starts, ends, groupIds, from, middle, chunkBytes).compute();
+            return merge(left, right.join());
+        }
+    }
+
+    /**
+     * Parses a part of one calendar, splitting it at a BEGIN:VEVENT line
+     * near the middle while it is larger than chunkBytes
+     */
+    private static class ChunkTask extends RecursiveTask<Lessons> {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] body;
+        private final int from;
+        private final int to;
+        private final int groupId;
+        private final int chunkBytes;
+
+        ChunkTask(byte[] body, int from, int to, int groupId, int chunkBytes) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+            this.groupId = groupId;
+            this.chunkBytes = chunkBytes;
+        }
+
+        @Override
+        protected Lessons compute() {
+            int split = to - from > chunkBytes ? lineStart(body, BEGIN_EVENT, (from + to) >>> 1, to) : -1;
+            if (split < 0) {
+                // the first half may still be large if the events start late
+                split = to - from > chunkBytes ? lineStart(body, BEGIN_EVENT, from + 1, to) : -1;
+            }
+            if (split <= from) {
+                return parse();
+            }
+            ChunkTask right = new ChunkTask(body, split, to, groupId, chunkBytes);
+            right.fork();
+            Lessons left = new ChunkTask(body, from, split, groupId, chunkBytes).compute();
+            return merge(left, right.join());
+        }
+
+        private Lessons parse() {
+            StarPlanLesson[] lessons;
+            try {
+                lessons = new IcalParser().parse(new InputStreamReader(
+                        new ByteArrayInputStream(body, from, to - from), StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                // cannot happen for a ByteArrayInputStream
+                throw new UncheckedIOException(e);
+            }
+            // stable, so lessons with the same start keep their order
+            Arrays.sort(lessons, IcalBulkParser::compare);
+            int[] groupIds = new int[lessons.length];
+            Arrays.fill(groupIds, groupId);
+            return new Lessons(lessons, groupIds);
+        }
+    }
+
+    /**
+     * Merges two sequences ordered by start, left first for equal starts
+     */
+    private static Lessons merge(Lessons left, Lessons right) {
+        int n = left.size() + right.size();
+        StarPlanLesson[] lessons = new StarPlanLesson[n];
+        int[] groupIds = new int[n];
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i < n; i++) {
+            if (r == right.size() || (l < left.size() && compare(left.lessons[l], right.lessons[r]) <= 0)) {
+                lessons[i] = left.lessons[l];
+                groupIds[i] = left.groupIds[l++];
+            } else {
+                lessons[i] = right.lessons[r];
+                groupIds[i] = right.groupIds[r++];
+            }
+        }
+        return new Lessons(lessons, groupIds);
+    }
+
+    /**
+     * Orders by start, lessons without start last
+     */
+    private static int compare(StarPlanLesson a, StarPlanLesson b) {
+        if (a.start == null || b.start == null) {
+            return a.start == null ? (b.start == null ? 0 : 1) : -1;
+        }
+        return a.start.compareTo(b.start);
+    }
+
+    /**
+     * @return index of the first line in [from, to) starting with the marker, -1 if there is none
+     */
+    private static int lineStart(byte[] body, byte[] marker, int from, int to) {
+        for (int i = Math.max(from, 0); i + marker.length <= to; i++) {
+            if (body[i] == marker[0] && (i == 0 || body[i - 1] == '\n') && startsWith(body, i, marker)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] body, int at, byte[] marker) {
+        for (int j = 1; j < marker.length; j++) {
+            if (body[at + j] != marker[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
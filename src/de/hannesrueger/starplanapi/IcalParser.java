@@ -0,0 +1,412 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+import java.util.function.Consumer;
+
+/**
+ * Helper class to parse ical strings
+ * The parser reads the calendar line by line from a Reader, so the whole
+ * response never has to be held in memory. Folded lines (RFC 5545 3.1),
+ * CRLF line endings, property parameters like DTSTART;TZID=... and values
+ * containing ':' are supported.
+ * @author Hannes Rüger
+ */
+class IcalParser {
+    public StarPlanLesson[] parse(String ical) {
+        try {
+            return parse(new StringReader(ical));
+        } catch (IOException e) {
+            // cannot happen for a StringReader
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Parses a whole calendar into an array
+     * @param in UTF-8 encoded ical data, not closed by this method
+     * @return StarPlanLesson array with all events
+     */
+    public StarPlanLesson[] parse(InputStream in) throws IOException {
+        return parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses a whole calendar into an array
+     * @param reader ical data, not closed by this method
+     * @return StarPlanLesson array with all events
+     */
+    public StarPlanLesson[] parse(Reader reader) throws IOException {
+        List<StarPlanLesson> events = new ArrayList<StarPlanLesson>();
+        parse(reader, events::add);
+        return events.toArray(new StarPlanLesson[0]);
+    }
+
+    /**
+     * Parses a calendar and hands every event to the consumer as soon as its
+     * END:VEVENT line has been read
+     * @param in UTF-8 encoded ical data, not closed by this method
+     * @param consumer
+     */
+    public void parse(InputStream in, Consumer<StarPlanLesson> consumer) throws IOException {
+        parse(new InputStreamReader(in, StandardCharsets.UTF_8), consumer);
+    }
+
+    /**
+     * Parses a calendar and hands every event to the consumer as soon as its
+     * END:VEVENT line has been read
+     * @param reader ical data, not closed by this method
+     * @param consumer
+     */
+    public void parse(Reader reader, Consumer<StarPlanLesson> consumer) throws IOException {
+        LessonReader lessons = new LessonReader(reader);
+        StarPlanLesson event;
+        while ((event = lessons.next()) != null) {
+            consumer.accept(event);
+        }
+    }
+
+    /**
+     * Lazily parses a calendar. IOExceptions are rethrown as UncheckedIOException.
+     * @param reader ical data, not closed by the iterator
+     * @return Iterator over all events
+     */
+    public Iterator<StarPlanLesson> iterate(Reader reader) {
+        LessonReader lessons = new LessonReader(reader);
+        return new Iterator<StarPlanLesson>() {
+            private StarPlanLesson next;
+            private boolean done;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null && !done) {
+                    try {
+                        next = lessons.next();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    done = next == null;
+                }
+                return next != null;
+            }
+
+            @Override
+            public StarPlanLesson next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                StarPlanLesson event = next;
+                next = null;
+                return event;
+            }
+        };
+    }
+
+    /**
+     * Pull parser state for a single calendar. Line, text and calendar
+     * buffers are reused for every property.
+     */
+    private static class LessonReader {
+        private final Reader reader;
+        private final char[] buf = new char[8192];
+        private int pos;
+        private int limit;
+        private final StringBuilder line = new StringBuilder(256);
+        private final StringBuilder text = new StringBuilder(256);
+        private final Calendar calendar = new GregorianCalendar();
+        private String tzid;
+        private TimeZone timeZone;
+
+        LessonReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return the next complete event or null at the end of the calendar
+         */
+        StarPlanLesson next() throws IOException {
+            StarPlanLesson event = null;
+            // depth of components nested in the event, e.g. VALARM
+            int nested = 0;
+            while (readLine()) {
+                int nameEnd = nameEnd();
+                if (nameEnd < 0) {
+                    continue;
+                }
+                int valueStart = valueStart(nameEnd);
+                if (valueStart < 0) {
+                    continue;
+                }
+                if (nameEquals(nameEnd, "BEGIN")) {
+                    if (event == null) {
+                        if (valueEquals(valueStart, "VEVENT")) {
+                            event = new StarPlanLesson();
+                        }
+                    } else {
+                        nested++;
+                    }
+                } else if (nameEquals(nameEnd, "END")) {
+                    if (event != null) {
+                        if (nested > 0) {
+                            nested--;
+                        } else if (valueEquals(valueStart, "VEVENT")) {
+                            return event;
+                        }
+                    }
+                } else if (event == null || nested > 0) {
+                    continue;
+                } else if (nameEquals(nameEnd, "DTSTART")) {
+                    event.start = parseDate(nameEnd, valueStart);
+                } else if (nameEquals(nameEnd, "DTEND")) {
+                    event.end = parseDate(nameEnd, valueStart);
+                } else if (nameEquals(nameEnd, "SUMMARY")) {
+                    event.summary = parseText(valueStart);
+                } else if (nameEquals(nameEnd, "UID")) {
+                    event.id = parseText(valueStart);
+                } else if (nameEquals(nameEnd, "LOCATION")) {
+                    event.location = parseText(valueStart);
+                } else if (nameEquals(nameEnd, "DESCRIPTION")) {
+                    event.description = parseText(valueStart);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Reads the next logical line into the line buffer, unfolding
+         * continuation lines and dropping CR/LF
+         * @return false at the end of the input
+         */
+        private boolean readLine() throws IOException {
+            line.setLength(0);
+            int c = read();
+            if (c < 0) {
+                return false;
+            }
+            while (c >= 0) {
+                if (c == '\n') {
+                    int next = peek();
+                    if (next == ' ' || next == '\t') {
+                        // folded line: drop the line break and the leading whitespace
+                        read();
+                        c = read();
+                        continue;
+                    }
+                    break;
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+                c = read();
+            }
+            return true;
+        }
+
+        private int read() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            return buf[pos++];
+        }
+
+        private int peek() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            return buf[pos];
+        }
+
+        private boolean fill() throws IOException {
+            int n = reader.read(buf, 0, buf.length);
+            while (n == 0) {
+                n = reader.read(buf, 0, buf.length);
+            }
+            pos = 0;
+            limit = Math.max(n, 0);
+            return n > 0;
+        }
+
+        /**
+         * @return index of the ';' or ':' ending the property name, -1 if there is none
+         */
+        private int nameEnd() {
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == ';' || c == ':') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Skips the property parameters, honouring quoted parameter values
+         * @return index of the first value character, -1 if there is no value
+         */
+        private int valueStart(int nameEnd) {
+            boolean quoted = false;
+            for (int i = nameEnd; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '"') {
+                    quoted = !quoted;
+                } else if (c == ':' && !quoted) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+
+        private boolean nameEquals(int nameEnd, String name) {
+            if (nameEnd != name.length()) {
+                return false;
+            }
+            for (int i = 0; i < nameEnd; i++) {
+                if (Character.toUpperCase(line.charAt(i)) != name.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean valueEquals(int valueStart, String value) {
+            if (line.length() - valueStart != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < value.length(); i++) {
+                if (Character.toUpperCase(line.charAt(valueStart + i)) != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Unescapes a TEXT value (RFC 5545 3.3.11)
+         */
+        private String parseText(int valueStart) {
+            text.setLength(0);
+            for (int i = valueStart; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\' && i + 1 < line.length()) {
+                    char escaped = line.charAt(++i);
+                    text.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+                } else {
+                    text.append(c);
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * Parses a DATE or DATE-TIME value (yyyyMMdd[THHmmss[Z]]) without
+         * creating intermediate strings
+         */
+        private Date parseDate(int nameEnd, int valueStart) {
+            int length = line.length() - valueStart;
+            if (length < 8) {
+                return null;
+            }
+            int year = digits(valueStart, 4);
+            int month = digits(valueStart + 4, 2);
+            int day = digits(valueStart + 6, 2);
+            int hour = 0;
+            int minute = 0;
+            int second = 0;
+            boolean utc = false;
+            if (length >= 15 && line.charAt(valueStart + 8) == 'T') {
+                hour = digits(valueStart + 9, 2);
+                minute = digits(valueStart + 11, 2);
+                second = digits(valueStart + 13, 2);
+                utc = length > 15 && line.charAt(valueStart + 15) == 'Z';
+            }
+            if (utc) {
+                long days = daysFromCivil(year, month, day);
+                return new Date(((days * 24 + hour) * 60 + minute) * 60_000L + second * 1000L);
+            }
+            calendar.setTimeZone(timeZone(nameEnd, valueStart));
+            calendar.clear();
+            calendar.set(year, month - 1, day, hour, minute, second);
+            return new Date(calendar.getTimeInMillis());
+        }
+
+        private int digits(int start, int count) {
+            int value = 0;
+            for (int i = start; i < start + count; i++) {
+                int digit = line.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Invalid date in line: " + line);
+                }
+                value = value * 10 + digit;
+            }
+            return value;
+        }
+
+        /**
+         * Resolves the TZID parameter of the current line. The last zone is
+         * remembered, so the id string is only created when it changes.
+         */
+        private TimeZone timeZone(int nameEnd, int valueStart) {
+            int paramsEnd = valueStart - 1;
+            int idStart = -1;
+            for (int i = nameEnd; i + 6 <= paramsEnd; i++) {
+                if (line.charAt(i) == ';' && regionEquals(i + 1, "TZID=")) {
+                    idStart = i + 6;
+                    break;
+                }
+            }
+            if (idStart < 0) {
+                return TimeZone.getDefault();
+            }
+            int idEnd = idStart;
+            while (idEnd < paramsEnd && line.charAt(idEnd) != ';') {
+                idEnd++;
+            }
+            if (idEnd > idStart && line.charAt(idStart) == '"') {
+                idStart++;
+                idEnd--;
+            }
+            if (tzid == null || tzid.length() != idEnd - idStart || !regionEquals(idStart, tzid)) {
+                tzid = line.substring(idStart, idEnd);
+                timeZone = TimeZone.getTimeZone(tzid);
+            }
+            return timeZone;
+        }
+
+        private boolean regionEquals(int start, String s) {
+            if (start + s.length() > line.length()) {
+                return false;
+            }
+            for (int i = 0; i < s.length(); i++) {
+                if (line.charAt(start + i) != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Days since 1970-01-01 of a proleptic gregorian date
+         */
+        private static long daysFromCivil(int year, int month, int day) {
+            long y = month <= 2 ? year - 1 : year;
+            long era = Math.floorDiv(y, 400);
+            long yearOfEra = y - era * 400;
+            long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+            long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+            return era * 146097 + dayOfEra - 719468;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * Writes lessons as an ical calendar to a Writer, event by event, so
+ * calendars can be streamed without building them in memory. Times are
+ * written in UTC, TEXT values are escaped and lines are folded after 75
+ * octets (RFC 5545 3.1). The output can be read again by IcalParser.
+ * @author Hannes Rüger
+ */
+class IcalWriter {
+    private static final String CRLF = "\r\n";
+
+    private final Writer writer;
+    private final String stamp;
+    private final StringBuilder line = new StringBuilder(256);
+    private final char[] date = new char[16];
+
+    /**
+     * @param writer receives the calendar, not closed by the writer
+     * @param stamp written as DTSTAMP of every event, e.g. the time the data was loaded
+     */
+    IcalWriter(Writer writer, Date stamp) {
+        this.writer = writer;
+        this.stamp = formatDate(stamp.getTime());
+    }
+
+    /**
+     * Writes the calendar header
+     * @param name calendar name shown by clients, may be null
+     */
+    void begin(String name) throws IOException {
+        writeLine("BEGIN:VCALENDAR");
+        writeLine("VERSION:2.0");
+        writeLine("PRODID:-//hannesrueger.de//StarPlan API//DE");
+        writeLine("CALSCALE:GREGORIAN");
+        if (name != null) {
+            writeText("X-WR-CALNAME", name);
+        }
+    }
+
+    /**
+     * Writes a lesson as VEVENT, lessons without start are skipped
+     * @param lesson
+     */
+    void write(StarPlanLesson lesson) throws IOException {
+        if (lesson.start == null) {
+            return;
+        }
+        writeLine("BEGIN:VEVENT");
+        writeText("UID", lesson.id);
+        writeLine("DTSTAMP:" + stamp);
+        writeLine("DTSTART:" + formatDate(lesson.start.getTime()));
+        if (lesson.end != null) {
+            writeLine("DTEND:" + formatDate(lesson.end.getTime()));
+        }
+        writeText("SUMMARY", lesson.summary);
+        writeText("LOCATION", lesson.location);
+        writeText("DESCRIPTION", lesson.description);
+        writeLine("END:VEVENT");
+    }
+
+    /**
+     * Writes the calendar footer and flushes the writer
+     */
+    void end() throws IOException {
+        writeLine("END:VCALENDAR");
+        writer.flush();
+    }
+
+    /**
+     * Writes a whole calendar
+     * @param writer not closed by this method
+     * @param name calendar name, may be null
+     * @param stamp DTSTAMP of the events
+     * @param lessons
+     */
+    static void write(Writer writer, String name, Date stamp, StarPlanLesson[] lessons) throws IOException {
+        IcalWriter ical = new IcalWriter(writer, stamp);
+        ical.begin(name);
+        for (StarPlanLesson lesson : lessons) {
+            ical.write(lesson);
+        }
+        ical.end();
+    }
+
+    /**
+     * Escapes a TEXT value (RFC 5545 3.3.11), null values are not written
+     */
+    private void writeText(String name, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        line.setLength(0);
+        line.append(name).append(':');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                case ';':
+                case ',':
+                    line.append('\\').append(c);
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+        writeFolded(line);
+    }
+
+    private void writeLine(String value) throws IOException {
+        writer.write(value);
+        writer.write(CRLF);
+    }
+
+    /**
+     * Folds the line after 75 octets of UTF-8, without splitting characters
+     */
+    private void writeFolded(CharSequence value) throws IOException {
+        int octets = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int length = c < 0x80 ? 1 : c < 0x800 ? 2 : Character.isHighSurrogate(c) ? 4 : 3;
+            if (octets + length > 75) {
+                // the leading space of the continuation line counts as well
+                writer.write(CRLF);
+                writer.write(' ');
+                octets = 1;
+            }
+            writer.write(c);
+            if (length == 4 && i + 1 < value.length()) {
+                writer.write(value.charAt(++i));
+            }
+            octets += length;
+        }
+        writer.write(CRLF);
+    }
+
+    /**
+     * @return yyyyMMddTHHmmssZ
+     */
+    private String formatDate(long millis) {
+        long seconds = Math.floorDiv(millis, 1000L);
+        long days = Math.floorDiv(seconds, 86400L);
+        int secondOfDay = (int) Math.floorMod(seconds, 86400L);
+        // civil from days, the inverse of IcalParser.daysFromCivil
+        long z = days + 719468;
+        long era = Math.floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+        digits(0, year, 4);
+        digits(4, month, 2);
+        digits(6, day, 2);
+        date[8] = 'T';
+        digits(9, secondOfDay / 3600, 2);
+        digits(11, secondOfDay / 60 % 60, 2);
+        digits(13, secondOfDay % 60, 2);
+        date[15] = 'Z';
+        return new String(date);
+    }
+
+    private void digits(int start, int value, int count) {
+        for (int i = start + count - 1; i >= start; i--) {
+            date[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -0,0 +1,391 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming JSON pull parser for the json endpoints of StarPlan.
+ * Values are read one by one straight into the entities, no tree is built.
+ * Commas between values are consumed by hasNext and nextName. Malformed
+ * input throws an IllegalStateException.
+ * @author Hannes Rüger
+ */
+class JsonReader {
+    /**
+     * Type of the next value
+     */
+    enum Token {
+        BEGIN_ARRAY, END_ARRAY, BEGIN_OBJECT, END_OBJECT, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private final Reader reader;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private final StringBuilder text = new StringBuilder(64);
+
+    /**
+     * @param in UTF-8 encoded json, not closed by the reader
+     */
+    JsonReader(InputStream in) {
+        this(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param reader json, not closed by the reader
+     */
+    JsonReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    JsonReader(String json) {
+        this(new StringReader(json));
+    }
+
+    /**
+     * @return type of the next value, without consuming it
+     */
+    Token peek() throws IOException {
+        int c = peekChar();
+        switch (c) {
+            case -1:
+                return Token.END_DOCUMENT;
+            case '[':
+                return Token.BEGIN_ARRAY;
+            case ']':
+                return Token.END_ARRAY;
+            case '{':
+                return Token.BEGIN_OBJECT;
+            case '}':
+                return Token.END_OBJECT;
+            case '"':
+                return Token.STRING;
+            case 't':
+            case 'f':
+                return Token.BOOLEAN;
+            case 'n':
+                return Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return Token.NUMBER;
+                }
+                throw syntaxError("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    void beginArray() throws IOException {
+        expect('[');
+    }
+
+    void endArray() throws IOException {
+        skipComma();
+        expect(']');
+    }
+
+    void beginObject() throws IOException {
+        expect('{');
+    }
+
+    void endObject() throws IOException {
+        skipComma();
+        expect('}');
+    }
+
+    /**
+     * Consumes the comma before the next element
+     * @return true if the current array or object has another element
+     */
+    boolean hasNext() throws IOException {
+        skipComma();
+        int c = peekChar();
+        return c != ']' && c != '}' && c != -1;
+    }
+
+    /**
+     * @return the name of the next property in an object
+     */
+    String nextName() throws IOException {
+        skipComma();
+        if (peekChar() != '"') {
+            throw syntaxError("expected a property name");
+        }
+        String name = readString();
+        expect(':');
+        return name;
+    }
+
+    /**
+     * @return the next string, numbers and booleans are returned as text, null for null
+     */
+    String nextString() throws IOException {
+        switch (peek()) {
+            case STRING:
+                return readString();
+            case NULL:
+                readLiteral("null");
+                return null;
+            case BOOLEAN:
+                return String.valueOf(nextBoolean());
+            case NUMBER:
+                return readNumber();
+            default:
+                throw syntaxError("expected a string");
+        }
+    }
+
+    /**
+     * @return the next number, strings containing a number are accepted, 0 for null
+     */
+    int nextInt() throws IOException {
+        long value = nextLong();
+        if (value != (int) value) {
+            throw syntaxError("number out of int range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return the next number, strings containing a number are accepted, 0 for null
+     */
+    long nextLong() throws IOException {
+        Token token = peek();
+        if (token == Token.NULL) {
+            readLiteral("null");
+            return 0;
+        }
+        if (token == Token.NUMBER && fill(1)) {
+            // fast path for plain integers inside the buffer
+            int p = pos;
+            boolean negative = buf[p] == '-';
+            if (negative) {
+                p++;
+            }
+            long value = 0;
+            int digits = 0;
+            while (p < limit && buf[p] >= '0' && buf[p] <= '9' && digits < 18) {
+                value = value * 10 + (buf[p++] - '0');
+                digits++;
+            }
+            if (digits > 0 && p < limit && !isNumberChar(buf[p])) {
+                pos = p;
+                return negative ? -value : value;
+            }
+        }
+        String number = token == Token.NUMBER ? readNumber() : nextString();
+        try {
+            return Long.parseLong(number.trim());
+        } catch (NumberFormatException e) {
+            try {
+                return (long) Double.parseDouble(number.trim());
+            } catch (NumberFormatException e2) {
+                throw syntaxError("expected a number but was \"" + number + "\"");
+            }
+        }
+    }
+
+    /**
+     * @return the next boolean, the strings "true" and "false" are accepted, false for null
+     */
+    boolean nextBoolean() throws IOException {
+        switch (peek()) {
+            case BOOLEAN:
+                if (buf[pos] == 't') {
+                    readLiteral("true");
+                    return true;
+                }
+                readLiteral("false");
+                return false;
+            case NULL:
+                readLiteral("null");
+                return false;
+            case STRING:
+                return Boolean.parseBoolean(readString());
+            default:
+                throw syntaxError("expected a boolean");
+        }
+    }
+
+    /**
+     * Skips the next value including all nested arrays and objects
+     */
+    void skipValue() throws IOException {
+        Token token = peek();
+        if (token != Token.BEGIN_ARRAY && token != Token.BEGIN_OBJECT) {
+            nextString();
+            return;
+        }
+        int depth = 0;
+        do {
+            int c = peekChar();
+            if (c == -1) {
+                throw syntaxError("unexpected end of document");
+            }
+            if (c == '"') {
+                readString();
+                continue;
+            }
+            // numbers, literals and separators are skipped char by char
+            pos++;
+            if (c == '[' || c == '{') {
+                depth++;
+            } else if (c == ']' || c == '}') {
+                depth--;
+            }
+        } while (depth > 0);
+    }
+
+    private String readString() throws IOException {
+        pos++; // opening quote
+        // fast path: the whole string is inside the buffer and has no escapes
+        for (int p = pos; p < limit; p++) {
+            char c = buf[p];
+            if (c == '"') {
+                String value = new String(buf, pos, p - pos);
+                pos = p + 1;
+                return value;
+            }
+            if (c == '\\') {
+                break;
+            }
+        }
+        text.setLength(0);
+        while (true) {
+            if (pos >= limit && !fill(1)) {
+                throw syntaxError("unterminated string");
+            }
+            char c = buf[pos++];
+            if (c == '"') {
+                return text.toString();
+            }
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            if (pos >= limit && !fill(1)) {
+                throw syntaxError("unterminated escape sequence");
+            }
+            char escaped = buf[pos++];
+            switch (escaped) {
+                case 'n':
+                    text.append('\n');
+                    break;
+                case 't':
+                    text.append('\t');
+                    break;
+                case 'r':
+                    text.append('\r');
+                    break;
+                case 'b':
+                    text.append('\b');
+                    break;
+                case 'f':
+                    text.append('\f');
+                    break;
+                case 'u':
+                    if (!fill(4)) {
+                        throw syntaxError("unterminated escape sequence");
+                    }
+                    int code = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(buf[pos++], 16);
+                        if (digit < 0) {
+                            throw syntaxError("invalid unicode escape");
+                        }
+                        code = code * 16 + digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default:
+                    // \" \\ \/
+                    text.append(escaped);
+            }
+        }
+    }
+
+    private String readNumber() throws IOException {
+        text.setLength(0);
+        while ((pos < limit || fill(1)) && isNumberChar(buf[pos])) {
+            text.append(buf[pos++]);
+        }
+        return text.toString();
+    }
+
+    private void readLiteral(String literal) throws IOException {
+        if (!fill(literal.length())) {
+            throw syntaxError("unexpected end of document");
+        }
+        for (int i = 0; i < literal.length(); i++) {
+            if (buf[pos + i] != literal.charAt(i)) {
+                throw syntaxError("expected " + literal);
+            }
+        }
+        pos += literal.length();
+    }
+
+    private static boolean isNumberChar(char c) {
+        return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+    }
+
+    private void expect(char expected) throws IOException {
+        if (peekChar() != expected) {
+            throw syntaxError("expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private void skipComma() throws IOException {
+        if (peekChar() == ',') {
+            pos++;
+        }
+    }
+
+    /**
+     * @return the next character which is not whitespace, -1 at the end
+     */
+    private int peekChar() throws IOException {
+        while (pos < limit || fill(1)) {
+            char c = buf[pos];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return c;
+            }
+            pos++;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads until at least count characters are available after pos
+     * @return false if the input ended before
+     */
+    private boolean fill(int count) throws IOException {
+        if (limit - pos >= count) {
+            return true;
+        }
+        compact(pos);
+        while (limit - pos < count) {
+            int n = reader.read(buf, limit, buf.length - limit);
+            if (n < 0) {
+                return false;
+            }
+            limit += n;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the characters from start to the front of the buffer
+     */
+    private void compact(int start) {
+        System.arraycopy(buf, start, buf, 0, limit - start);
+        limit -= start;
+        pos -= start;
+    }
+
+    private IllegalStateException syntaxError(String message) {
+        return new IllegalStateException("Malformed JSON: " + message);
+    }
+}
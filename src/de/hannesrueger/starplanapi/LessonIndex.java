@@ -0,0 +1,220 @@
+package de.hannesrueger.starplanapi;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * Immutable time index over the lessons of a timetable.
+ * Start and end times are stored as epoch minutes in primitive arrays sorted
+ * by start, so the current and next lesson, time ranges, days and weeks are
+ * found with a binary search instead of sorting or scanning all lessons.
+ * For range queries the lessons are additionally grouped into duration
+ * classes (powers of two), so a single long lesson does not force a scan of
+ * every later lesson. Lessons without a start time are ignored.
+ * @author Hannes Rüger
+ */
+class LessonIndex {
+    private final StarPlanLesson[] lessons;
+    private final int[] starts;
+    private final int[] ends;
+    /**
+     * positions (in start order) of the lessons per duration class, a class
+     * holds the durations with the same bit length, empty classes are left out
+     */
+    private final int[][] classes;
+    /**
+     * classStarts[c][j] is the start of the lesson classes[c][j], ascending
+     */
+    private final int[][] classStarts;
+    /**
+     * longest duration of each class, lessons of the class starting earlier
+     * than this before a range cannot overlap it
+     */
+    private final int[] maxDurations;
+
+    /**
+     * Builds the index, the given array is not modified
+     * @param lessons
+     */
+    LessonIndex(StarPlanLesson[] lessons) {
+        StarPlanLesson[] sorted = Arrays.stream(lessons)
+                .filter(lesson -> lesson != null && lesson.start != null)
+                .toArray(StarPlanLesson[]::new);
+        Arrays.sort(sorted, Comparator.comparing(lesson -> lesson.start));
+        this.lessons = sorted;
+        this.starts = new int[sorted.length];
+        this.ends = new int[sorted.length];
+        int[] counts = new int[33];
+        for (int i = 0; i < sorted.length; i++) {
+            starts[i] = minutes(sorted[i].start);
+            ends[i] = sorted[i].end != null ? Math.max(minutes(sorted[i].end), starts[i]) : starts[i];
+            counts[durationClass(ends[i] - starts[i])]++;
+        }
+        int used = 0;
+        int[] slots = new int[counts.length];
+        for (int c = 0; c < counts.length; c++) {
+            slots[c] = counts[c] > 0 ? used++ : -1;
+        }
+        this.classes = new int[used][];
+        this.classStarts = new int[used][];
+        this.maxDurations = new int[used];
+        for (int c = 0; c < counts.length; c++) {
+            if (slots[c] >= 0) {
+                classes[slots[c]] = new int[counts[c]];
+                classStarts[slots[c]] = new int[counts[c]];
+            }
+        }
+        int[] filled = new int[used];
+        for (int i = 0; i < sorted.length; i++) {
+            int duration = ends[i] - starts[i];
+            int slot = slots[durationClass(duration)];
+            classes[slot][filled[slot]] = i;
+            classStarts[slot][filled[slot]++] = starts[i];
+            maxDurations[slot] = Math.max(maxDurations[slot], duration);
+        }
+    }
+
+    /**
+     * @return number of indexed lessons
+     */
+    int size() {
+        return lessons.length;
+    }
+
+    /**
+     * @param i position in start order
+     * @return the i-th lesson by start time
+     */
+    StarPlanLesson get(int i) {
+        return lessons[i];
+    }
+
+    /**
+     * @return the lesson starting first, null if the index is empty
+     */
+    StarPlanLesson first() {
+        return lessons.length > 0 ? lessons[0] : null;
+    }
+
+    /**
+     * @return the lesson starting last, null if the index is empty
+     */
+    StarPlanLesson last() {
+        return lessons.length > 0 ? lessons[lessons.length - 1] : null;
+    }
+
+    /**
+     * @param time
+     * @return all lessons running at the given time, ordered by start
+     */
+    StarPlanLesson[] current(Date time) {
+        int t = minutes(time);
+        return between(t, t + 1);
+    }
+
+    /**
+     * @param time
+     * @return the first lesson starting after the given time, null if there is none
+     */
+    StarPlanLesson next(Date time) {
+        int i = lowerBound(starts, minutes(time) + 1);
+        return i < lessons.length ? lessons[i] : null;
+    }
+
+    /**
+     * @param from inclusive
+     * @param to exclusive
+     * @return all lessons overlapping the range, ordered by start
+     */
+    StarPlanLesson[] between(Date from, Date to) {
+        return between(minutes(from), minutes(to));
+    }
+
+    /**
+     * @param day
+     * @param zone time zone the day is interpreted in
+     * @return all lessons on the given day, ordered by start
+     */
+    StarPlanLesson[] day(LocalDate day, ZoneId zone) {
+        return between(minutes(day, zone), minutes(day.plusDays(1), zone));
+    }
+
+    /**
+     * @param day any day of the week
+     * @param zone time zone the week is interpreted in
+     * @return all lessons from monday to sunday of the week, ordered by start
+     */
+    StarPlanLesson[] week(LocalDate day, ZoneId zone) {
+        LocalDate monday = day.minusDays(day.getDayOfWeek().getValue() - DayOfWeek.MONDAY.getValue());
+        return between(minutes(monday, zone), minutes(monday.plusWeeks(1), zone));
+    }
+
+    /**
+     * Searches every duration class from the earliest start which can still
+     * overlap the range. Lessons of a class differ in duration by less than a
+     * factor of two, so besides the matches only lessons starting in a window
+     * shorter than the longest duration of their class are visited.
+     */
+    private StarPlanLesson[] between(int from, int to) {
+        int[] found = new int[16];
+        int n = 0;
+        for (int c = 0; c < classes.length; c++) {
+            int[] positions = classes[c];
+            int[] classStart = classStarts[c];
+            // lessons starting before to
+            int hi = lowerBound(classStart, to);
+            for (int j = lowerBound(classStart, from - maxDurations[c]); j < hi; j++) {
+                int i = positions[j];
+                if (ends[i] > from || starts[i] >= from) {
+                    if (n == found.length) {
+                        found = Arrays.copyOf(found, n * 2);
+                    }
+                    found[n++] = i;
+                }
+            }
+        }
+        // positions are in start order
+        Arrays.sort(found, 0, n);
+        StarPlanLesson[] result = new StarPlanLesson[n];
+        for (int k = 0; k < n; k++) {
+            result[k] = lessons[found[k]];
+        }
+        return result;
+    }
+
+    /**
+     * @return 0 for an empty duration, otherwise the number of bits of the duration
+     */
+    private static int durationClass(int duration) {
+        return 32 - Integer.numberOfLeadingZeros(duration);
+    }
+
+    /**
+     * @return index of the first value >= key
+     */
+    private static int lowerBound(int[] values, int key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    static int minutes(Date date) {
+        return (int) Math.floorDiv(date.getTime(), 60_000L);
+    }
+
+    private static int minutes(LocalDate day, ZoneId zone) {
+        return (int) (day.atStartOfDay(zone).toEpochSecond() / 60);
+    }
+}
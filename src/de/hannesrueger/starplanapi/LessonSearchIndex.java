@@ -0,0 +1,434 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable inverted index for searching the lessons of a LessonStore by
+ * lecturer, lecture, room and group. Values are normalized to lower case
+ * words, and every value is indexed from each of its words on, so "schm"
+ * finds "Prof. Dr. Schmidt" and "s 2" finds "S 203". The terms of a field are
+ * sorted, a prefix is found with a binary search and the matching lessons are
+ * collected from precomputed posting lists into a BitSet of lesson ids.
+ * Results of several queries can be combined with BitSet.and and BitSet.or,
+ * e.g. with the lessons of a time range.
+ * @author Hannes Rüger
+ */
+class LessonSearchIndex {
+    /**
+     * Searchable fields of a lesson
+     */
+    enum Field {
+        /**
+         * "Dozent" of the description, several lecturers separated by ','
+         */
+        LECTURER,
+        /**
+         * SUMMARY, "Veranstaltung" of the description and the short name of the lecture
+         */
+        LECTURE,
+        /**
+         * LOCATION, several rooms separated by ','
+         */
+        ROOM,
+        /**
+         * name and short name of the group, its id if the group is unknown
+         */
+        GROUP
+    }
+
+    /**
+     * Sorted terms of a field with the ascending lesson ids of every term
+     */
+    private static class Terms {
+        final String[] terms;
+        final int[][] postings;
+
+        Terms(String[] terms, int[][] postings) {
+            this.terms = terms;
+            this.postings = postings;
+        }
+    }
+
+    /**
+     * Growable list of ascending lesson ids
+     */
+    private static class Postings {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size > 0 && ids[size - 1] == id) {
+                return;
+            }
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    private final LessonStore store;
+    private final Terms[] fields = new Terms[Field.values().length];
+    /**
+     * Lesson ids ordered by start, with their start and the latest end of all
+     * lessons up to them, for time range queries like in LessonIndex
+     */
+    private final int[] byStart;
+    private final int[] starts;
+    private final int[] maxEnds;
+
+    /**
+     * Builds the index without group names, groups are found by their id
+     * @param store
+     */
+    LessonSearchIndex(LessonStore store) {
+        this(store, new StarPlanGroup[0]);
+    }
+
+    /**
+     * Builds the index
+     * @param store
+     * @param groups groups of the store, their names and the short names of their lectures are indexed
+     */
+    LessonSearchIndex(LessonStore store, StarPlanGroup[] groups) {
+        this.store = store;
+        Map<Integer, StarPlanGroup> groupsById = new HashMap<Integer, StarPlanGroup>();
+        Map<String, String> shortnames = new HashMap<String, String>();
+        for (StarPlanGroup group : groups) {
+            groupsById.put(group.id, group);
+            if (group.lectures != null) {
+                for (StarPlanLecture lecture : group.lectures) {
+                    if (lecture.name != null && lecture.shortname != null) {
+                        shortnames.put(lecture.name, lecture.shortname);
+                    }
+                }
+            }
+        }
+        SymbolTable symbols = store.symbols();
+        // terms per symbol id, every distinct value is normalized once
+        Map<Integer, String[]> lecturerTerms = new HashMap<Integer, String[]>();
+        Map<Integer, String[]> lectureTerms = new HashMap<Integer, String[]>();
+        Map<Integer, String[]> roomTerms = new HashMap<Integer, String[]>();
+        Map<String, Postings> lecturers = new HashMap<String, Postings>();
+        Map<String, Postings> lectures = new HashMap<String, Postings>();
+        Map<String, Postings> rooms = new HashMap<String, Postings>();
+        Map<String, Postings> groupNames = new HashMap<String, Postings>();
+        for (int groupId : store.groupIds()) {
+            StarPlanGroup group = groupsById.get(groupId);
+            String[] names = group != null
+                    ? concat(terms(group.name, false), terms(group.shortname, false))
+                    : terms(String.valueOf(groupId), false);
+            for (int i = store.groupStart(groupId); i < store.groupEnd(groupId); i++) {
+                add(groupNames, names, i);
+                add(lecturers, lecturerTerms.computeIfAbsent(store.lecturerId(i),
+                        id -> terms(symbols.get(id), true)), i);
+                add(rooms, roomTerms.computeIfAbsent(store.locationId(i),
+                        id -> terms(symbols.get(id), true)), i);
+                add(lectures, lectureTerms.computeIfAbsent(store.summaryId(i),
+                        id -> terms(symbols.get(id), shortnames)), i);
+                if (store.lectureId(i) != store.summaryId(i)) {
+                    add(lectures, lectureTerms.computeIfAbsent(store.lectureId(i),
+                            id -> terms(symbols.get(id), shortnames)), i);
+                }
+            }
+        }
+        fields[Field.LECTURER.ordinal()] = sorted(lecturers);
+        fields[Field.LECTURE.ordinal()] = sorted(lectures);
+        fields[Field.ROOM.ordinal()] = sorted(rooms);
+        fields[Field.GROUP.ordinal()] = sorted(groupNames);
+
+        int n = store.size();
+        byStart = new int[n];
+        starts = new int[n];
+        maxEnds = new int[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(store.startMinutes(a), store.startMinutes(b)));
+        int maxEnd = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            byStart[i] = order[i];
+            starts[i] = store.startMinutes(order[i]);
+            maxEnd = Math.max(maxEnd, store.endMinutes(order[i]));
+            maxEnds[i] = maxEnd;
+        }
+    }
+
+    /**
+     * @return the store the lesson ids refer to
+     */
+    LessonStore store() {
+        return store;
+    }
+
+    /**
+     * @param field
+     * @param prefix case insensitive, punctuation is ignored
+     * @return ids of the lessons with a value of the field containing a word starting with prefix
+     */
+    BitSet matches(Field field, String prefix) {
+        BitSet result = new BitSet(store.size());
+        collect(fields[field.ordinal()], normalize(prefix), result);
+        return result;
+    }
+
+    /**
+     * @param prefix case insensitive, punctuation is ignored
+     * @return ids of the lessons matching the prefix in any field
+     */
+    BitSet matches(String prefix) {
+        String normalized = normalize(prefix);
+        BitSet result = new BitSet(store.size());
+        for (Terms terms : fields) {
+            collect(terms, normalized, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param from inclusive
+     * @param to exclusive
+     * @return ids of the lessons overlapping the range
+     */
+    BitSet between(Date from, Date to) {
+        int fromMinutes = LessonIndex.minutes(from);
+        int toMinutes = LessonIndex.minutes(to);
+        BitSet result = new BitSet(store.size());
+        int hi = lowerBound(starts, toMinutes);
+        for (int i = lowerBound(maxEnds, fromMinutes); i < hi; i++) {
+            int id = byStart[i];
+            if (overlaps(id, fromMinutes, toMinutes)) {
+                result.set(id);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param prefix case insensitive, punctuation is ignored
+     * @return ascending ids of the lessons matching the prefix in any field
+     */
+    int[] search(String prefix) {
+        return ids(matches(prefix));
+    }
+
+    /**
+     * @param field
+     * @param prefix case insensitive, punctuation is ignored
+     * @return ascending ids of the lessons matching the prefix in the field
+     */
+    int[] search(Field field, String prefix) {
+        return ids(matches(field, prefix));
+    }
+
+    /**
+     * @param field
+     * @param prefix case insensitive, punctuation is ignored
+     * @param from inclusive
+     * @param to exclusive
+     * @return ascending ids of the lessons matching the prefix in the field and overlapping the range
+     */
+    int[] search(Field field, String prefix, Date from, Date to) {
+        return within(matches(field, prefix), from, to);
+    }
+
+    /**
+     * @param prefix case insensitive, punctuation is ignored
+     * @param from inclusive
+     * @param to exclusive
+     * @return ascending ids of the lessons matching the prefix in any field and overlapping the range
+     */
+    int[] search(String prefix, Date from, Date to) {
+        return within(matches(prefix), from, to);
+    }
+
+    /**
+     * @param ids
+     * @return the lessons of the ids, created by the store
+     */
+    StarPlanLesson[] lessons(int[] ids) {
+        StarPlanLesson[] lessons = new StarPlanLesson[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            lessons[i] = store.lesson(ids[i]);
+        }
+        return lessons;
+    }
+
+    /**
+     * Checks the few matches directly instead of building the time range
+     */
+    private int[] within(BitSet matches, Date from, Date to) {
+        int fromMinutes = LessonIndex.minutes(from);
+        int toMinutes = LessonIndex.minutes(to);
+        int[] ids = new int[matches.cardinality()];
+        int n = 0;
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            if (overlaps(id, fromMinutes, toMinutes)) {
+                ids[n++] = id;
+            }
+        }
+        return n == ids.length ? ids : Arrays.copyOf(ids, n);
+    }
+
+    /**
+     * @param matches
+     * @return the ids of the set bits, ascending
+     */
+    static int[] ids(BitSet matches) {
+        int[] ids = new int[matches.cardinality()];
+        int n = 0;
+        for (int id = matches.nextSetBit(0); id >= 0; id = matches.nextSetBit(id + 1)) {
+            ids[n++] = id;
+        }
+        return ids;
+    }
+
+    private boolean overlaps(int id, int from, int to) {
+        int start = store.startMinutes(id);
+        return start < to && (store.endMinutes(id) > from || start >= from);
+    }
+
+    private static void collect(Terms terms, String prefix, BitSet result) {
+        if (prefix.isEmpty()) {
+            return;
+        }
+        for (int t = lowerBound(terms.terms, prefix); t < terms.terms.length
+                && terms.terms[t].startsWith(prefix); t++) {
+            for (int id : terms.postings[t]) {
+                result.set(id);
+            }
+        }
+    }
+
+    private static void add(Map<String, Postings> postings, String[] terms, int id) {
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new Postings()).add(id);
+        }
+    }
+
+    private static Terms sorted(Map<String, Postings> postings) {
+        TreeMap<String, Postings> sorted = new TreeMap<String, Postings>(postings);
+        String[] terms = sorted.keySet().toArray(new String[0]);
+        int[][] ids = new int[terms.length][];
+        int t = 0;
+        for (Postings list : sorted.values()) {
+            ids[t++] = Arrays.copyOf(list.ids, list.size);
+        }
+        return new Terms(terms, ids);
+    }
+
+    /**
+     * Terms of a lecture name, including the terms of its short name
+     */
+    private static String[] terms(String lecture, Map<String, String> shortnames) {
+        String[] terms = terms(lecture, false);
+        String shortname = lecture != null ? shortnames.get(lecture) : null;
+        return shortname != null ? concat(terms, terms(shortname, false)) : terms;
+    }
+
+    /**
+     * @param value
+     * @param list value is a ',' separated list like LOCATION
+     * @return the normalized value from each of its words on
+     */
+    static String[] terms(String value, boolean list) {
+        if (value == null) {
+            return new String[0];
+        }
+        String[] terms = new String[0];
+        for (String item : list ? StarPlanLesson.splitList(value) : Collections.singletonList(value)) {
+            String normalized = normalize(item);
+            if (normalized.isEmpty()) {
+                continue;
+            }
+            int words = 1;
+            for (int i = 0; i < normalized.length(); i++) {
+                if (normalized.charAt(i) == ' ') {
+                    words++;
+                }
+            }
+            String[] suffixes = new String[words];
+            suffixes[0] = normalized;
+            int w = 1;
+            for (int i = 0; i < normalized.length(); i++) {
+                if (normalized.charAt(i) == ' ') {
+                    suffixes[w++] = normalized.substring(i + 1);
+                }
+            }
+            terms = concat(terms, suffixes);
+        }
+        return terms;
+    }
+
+    /**
+     * Lower case letters and digits, every run of other characters becomes a
+     * single space
+     * @param value
+     * @return the normalized value without leading and trailing spaces
+     */
+    static String normalize(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(value.length());
+        boolean space = false;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                space = false;
+                normalized.append(c);
+            } else {
+                space = true;
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        String[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static int lowerBound(String[] values, String key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid].compareTo(key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static int lowerBound(int[] values, int key) {
+        int lo = 0;
+        int hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (values[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
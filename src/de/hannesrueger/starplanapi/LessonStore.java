@@ -0,0 +1,299 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable columnar store for the lessons of many groups, e.g. a whole
+ * semester. Start and end are kept as epoch minutes in int arrays, all
+ * strings as ids of a SymbolTable of its own. The fields of the DESCRIPTION
+ * are parsed once per distinct description and stored as columns of their
+ * own. A lesson costs 44 bytes plus the strings seen for the first time,
+ * instead of two Dates, a StarPlanLesson and its own strings.
+ * StarPlanLesson objects are only created on demand by lesson(i).
+ * A store built from a previous one reuses its string instances, so both
+ * generations share the strings while they are alive, and the table of the
+ * previous generation is dropped together with it.
+ * Lessons are ordered by group and start time.
+ * @author Hannes Rüger
+ */
+class LessonStore {
+    private final SymbolTable symbols;
+    private final int[] groups;
+    private final int[] starts;
+    private final int[] ends;
+    private final int[] uids;
+    private final int[] summaries;
+    private final int[] locations;
+    private final int[] lecturers;
+    private final int[] types;
+    private final int[] courses;
+    private final int[] lectures;
+    private final int[] descriptions;
+    /**
+     * group id -> {first lesson, end of its lessons}
+     */
+    private final Map<Integer, int[]> groupRanges;
+    private final int[] groupIds;
+
+    /**
+     * Collects the lessons of all groups
+     */
+    static class Builder {
+        private final LessonStore previous;
+        private final Map<Integer, StarPlanLesson[]> groups = new HashMap<Integer, StarPlanLesson[]>();
+        private final List<Integer> order = new ArrayList<Integer>();
+
+        Builder() {
+            this(null);
+        }
+
+        /**
+         * @param previous older store whose strings are reused, e.g. of the last snapshot, may be null
+         */
+        Builder(LessonStore previous) {
+            this.previous = previous;
+        }
+
+        /**
+         * Sets the lessons of a group, replacing earlier ones
+         * @param groupId
+         * @param lessons lessons without start are ignored
+         */
+        Builder add(int groupId, StarPlanLesson[] lessons) {
+            if (groups.put(groupId, lessons) == null) {
+                order.add(groupId);
+            }
+            return this;
+        }
+
+        LessonStore build() {
+            return new LessonStore(this);
+        }
+    }
+
+    private LessonStore(Builder builder) {
+        this.symbols = new SymbolTable();
+        SymbolTable previous = builder.previous != null ? builder.previous.symbols : null;
+        int n = 0;
+        for (StarPlanLesson[] lessons : builder.groups.values()) {
+            for (StarPlanLesson lesson : lessons) {
+                if (lesson != null && lesson.start != null) {
+                    n++;
+                }
+            }
+        }
+        groups = new int[n];
+        starts = new int[n];
+        ends = new int[n];
+        uids = new int[n];
+        summaries = new int[n];
+        locations = new int[n];
+        lecturers = new int[n];
+        types = new int[n];
+        courses = new int[n];
+        lectures = new int[n];
+        descriptions = new int[n];
+        groupRanges = new HashMap<Integer, int[]>();
+        groupIds = builder.order.stream().mapToInt(Integer::intValue).toArray();
+        // most descriptions repeat, so each one is parsed once
+        Map<Integer, StarPlanLessonDescription> parsed = new HashMap<Integer, StarPlanLessonDescription>();
+        int i = 0;
+        for (int groupId : builder.order) {
+            StarPlanLesson[] sorted = Arrays.stream(builder.groups.get(groupId))
+                    .filter(lesson -> lesson != null && lesson.start != null)
+                    .sorted((a, b) -> a.start.compareTo(b.start))
+                    .toArray(StarPlanLesson[]::new);
+            groupRanges.put(groupId, new int[] { i, i + sorted.length });
+            for (StarPlanLesson lesson : sorted) {
+                groups[i] = groupId;
+                starts[i] = LessonIndex.minutes(lesson.start);
+                ends[i] = lesson.end != null ? Math.max(LessonIndex.minutes(lesson.end), starts[i]) : starts[i];
+                uids[i] = intern(previous, lesson.id);
+                summaries[i] = intern(previous, lesson.summary);
+                locations[i] = intern(previous, lesson.location);
+                descriptions[i] = intern(previous, lesson.description);
+                StarPlanLessonDescription details = parsed.computeIfAbsent(descriptions[i],
+                        id -> StarPlanLessonDescription.parse(lesson.description));
+                lecturers[i] = intern(previous, details.lecturer);
+                types[i] = intern(previous, details.type);
+                courses[i] = intern(previous, details.course);
+                lectures[i] = intern(previous, details.lecture);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Adds a symbol, taking the instance of the previous generation if it has an equal one
+     */
+    private int intern(SymbolTable previous, String symbol) {
+        if (previous != null) {
+            int id = previous.find(symbol);
+            if (id != SymbolTable.NONE) {
+                symbol = previous.get(id);
+            }
+        }
+        return symbols.intern(symbol);
+    }
+
+    /**
+     * @return number of lessons
+     */
+    int size() {
+        return starts.length;
+    }
+
+    /**
+     * @return the symbol table the string ids refer to
+     */
+    SymbolTable symbols() {
+        return symbols;
+    }
+
+    /**
+     * @return ids of all groups in the order they were added
+     */
+    int[] groupIds() {
+        return groupIds.clone();
+    }
+
+    /**
+     * @param groupId
+     * @return first lesson of the group, 0 if the group is unknown
+     */
+    int groupStart(int groupId) {
+        int[] range = groupRanges.get(groupId);
+        return range != null ? range[0] : 0;
+    }
+
+    /**
+     * @param groupId
+     * @return end of the lessons of the group (exclusive), 0 if the group is unknown
+     */
+    int groupEnd(int groupId) {
+        int[] range = groupRanges.get(groupId);
+        return range != null ? range[1] : 0;
+    }
+
+    int groupId(int i) {
+        return groups[i];
+    }
+
+    /**
+     * @return start in epoch minutes
+     */
+    int startMinutes(int i) {
+        return starts[i];
+    }
+
+    /**
+     * @return end in epoch minutes
+     */
+    int endMinutes(int i) {
+        return ends[i];
+    }
+
+    int uidId(int i) {
+        return uids[i];
+    }
+
+    int summaryId(int i) {
+        return summaries[i];
+    }
+
+    int locationId(int i) {
+        return locations[i];
+    }
+
+    int lecturerId(int i) {
+        return lecturers[i];
+    }
+
+    int typeId(int i) {
+        return types[i];
+    }
+
+    int courseId(int i) {
+        return courses[i];
+    }
+
+    int lectureId(int i) {
+        return lectures[i];
+    }
+
+    int descriptionId(int i) {
+        return descriptions[i];
+    }
+
+    String summary(int i) {
+        return symbols.get(summaries[i]);
+    }
+
+    String location(int i) {
+        return symbols.get(locations[i]);
+    }
+
+    String lecturer(int i) {
+        return symbols.get(lecturers[i]);
+    }
+
+    /**
+     * @return lesson type like "Vorlesung" from the description
+     */
+    String type(int i) {
+        return symbols.get(types[i]);
+    }
+
+    /**
+     * @return course code from the description
+     */
+    String course(int i) {
+        return symbols.get(courses[i]);
+    }
+
+    /**
+     * @return lecture name from the description
+     */
+    String lecture(int i) {
+        return symbols.get(lectures[i]);
+    }
+
+    String description(int i) {
+        return symbols.get(descriptions[i]);
+    }
+
+    /**
+     * Creates a StarPlanLesson for the i-th lesson, the strings are shared
+     * with the store
+     * @param i
+     * @return a new StarPlanLesson with minute precision
+     */
+    StarPlanLesson lesson(int i) {
+        StarPlanLesson lesson = new StarPlanLesson();
+        lesson.start = new Date(starts[i] * 60_000L);
+        lesson.end = new Date(ends[i] * 60_000L);
+        lesson.id = symbols.get(uids[i]);
+        lesson.summary = symbols.get(summaries[i]);
+        lesson.location = symbols.get(locations[i]);
+        lesson.description = symbols.get(descriptions[i]);
+        return lesson;
+    }
+
+    /**
+     * @param groupId
+     * @return the lessons of the group ordered by start, empty if the group is unknown
+     */
+    StarPlanLesson[] lessons(int groupId) {
+        int from = groupStart(groupId);
+        StarPlanLesson[] lessons = new StarPlanLesson[groupEnd(groupId) - from];
+        for (int i = 0; i < lessons.length; i++) {
+            lessons[i] = lesson(from + i);
+        }
+        return lessons;
+    }
+}
@@ -0,0 +1,195 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Occupancy index over the rooms in the LOCATION of the lessons of all groups.
+ * Time is split into fixed slots starting at an origin, e.g. the semester
+ * start. Every room has one bitset with a bit per occupied slot. The
+ * calendars of the groups can be replaced one by one when they change.
+ * Queries do not lock: published bitsets are never modified, an update
+ * replaces the bitsets of the affected rooms.
+ * @author Hannes Rüger
+ */
+class RoomOccupancyIndex {
+    static final int DEFAULT_SLOT_MINUTES = 5;
+
+    private final long originMinutes;
+    private final int slotMinutes;
+    /**
+     * Occupancy of all groups, read without locking
+     */
+    private final Map<String, BitSet> occupancy = new ConcurrentHashMap<String, BitSet>();
+    /**
+     * Occupancy per group and room, guarded by this
+     */
+    private final Map<Integer, Map<String, BitSet>> groups = new HashMap<Integer, Map<String, BitSet>>();
+    /**
+     * Ids of the groups using a room, guarded by this
+     */
+    private final Map<String, Set<Integer>> roomGroups = new HashMap<String, Set<Integer>>();
+
+    /**
+     * @param origin start of the first slot, lessons before it are ignored
+     */
+    RoomOccupancyIndex(Date origin) {
+        this(origin, DEFAULT_SLOT_MINUTES);
+    }
+
+    /**
+     * @param origin start of the first slot, lessons before it are ignored
+     * @param slotMinutes length of a slot, lessons are rounded outwards to full slots
+     */
+    RoomOccupancyIndex(Date origin, int slotMinutes) {
+        this.originMinutes = Math.floorDiv(origin.getTime(), 60_000L);
+        this.slotMinutes = slotMinutes;
+    }
+
+    /**
+     * Replaces the lessons of a group
+     * @param groupId id of the StarPlanGroup the lessons belong to
+     * @param lessons the complete new timetable of the group
+     */
+    synchronized void updateGroup(int groupId, StarPlanLesson[] lessons) {
+        Map<String, BitSet> rooms = new HashMap<String, BitSet>();
+        for (StarPlanLesson lesson : lessons) {
+            if (lesson.start == null || lesson.end == null || lesson.location == null) {
+                continue;
+            }
+            int from = Math.max(slot(lesson.start, false), 0);
+            int to = slot(lesson.end, true);
+            if (to <= from) {
+                continue;
+            }
+            for (String room : StarPlanLesson.splitList(lesson.location)) {
+                rooms.computeIfAbsent(room, r -> new BitSet()).set(from, to);
+            }
+        }
+        replace(groupId, rooms);
+    }
+
+    /**
+     * Removes all lessons of a group
+     * @param groupId
+     */
+    synchronized void removeGroup(int groupId) {
+        replace(groupId, new HashMap<String, BitSet>());
+    }
+
+    /**
+     * @return all known rooms, sorted
+     */
+    String[] rooms() {
+        return new TreeSet<String>(occupancy.keySet()).toArray(new String[0]);
+    }
+
+    /**
+     * @param room
+     * @param from
+     * @param to
+     * @return true if no lesson takes place in the room between from and to
+     */
+    boolean isFree(String room, Date from, Date to) {
+        BitSet bits = occupancy.get(room);
+        return bits == null || isClear(bits, Math.max(slot(from, false), 0), slot(to, true));
+    }
+
+    /**
+     * @param from
+     * @param to
+     * @return all known rooms without a lesson between from and to, sorted
+     */
+    String[] freeRooms(Date from, Date to) {
+        int fromSlot = Math.max(slot(from, false), 0);
+        int toSlot = slot(to, true);
+        TreeSet<String> free = new TreeSet<String>();
+        for (Map.Entry<String, BitSet> room : occupancy.entrySet()) {
+            if (isClear(room.getValue(), fromSlot, toSlot)) {
+                free.add(room.getKey());
+            }
+        }
+        return free.toArray(new String[0]);
+    }
+
+    /**
+     * @param room
+     * @param from earliest start
+     * @param minutes how long the room has to be free
+     * @return the earliest time from which the room is free for the given duration
+     */
+    Date nextFree(String room, Date from, int minutes) {
+        BitSet bits = occupancy.get(room);
+        if (bits == null) {
+            return from;
+        }
+        int fromSlot = Math.max(slot(from, false), 0);
+        int i = bits.nextClearBit(fromSlot);
+        while (true) {
+            // from may lie inside the first free slot or before the first slot, later slots start after it
+            long start = i == fromSlot ? from.getTime() : slotStart(i);
+            int next = bits.nextSetBit(i);
+            if (next < 0 || slotStart(next) - start >= minutes * 60_000L) {
+                return new Date(start);
+            }
+            i = bits.nextClearBit(next);
+        }
+    }
+
+    private void replace(int groupId, Map<String, BitSet> rooms) {
+        Map<String, BitSet> old = groups.remove(groupId);
+        Set<String> affected = new HashSet<String>(rooms.keySet());
+        if (old != null) {
+            affected.addAll(old.keySet());
+            for (String room : old.keySet()) {
+                roomGroups.get(room).remove(groupId);
+            }
+        }
+        if (!rooms.isEmpty()) {
+            groups.put(groupId, rooms);
+        }
+        for (String room : rooms.keySet()) {
+            roomGroups.computeIfAbsent(room, r -> new HashSet<Integer>()).add(groupId);
+        }
+        for (String room : affected) {
+            Set<Integer> ids = roomGroups.get(room);
+            if (ids == null || ids.isEmpty()) {
+                roomGroups.remove(room);
+                occupancy.remove(room);
+                continue;
+            }
+            BitSet union = new BitSet();
+            for (int id : ids) {
+                union.or(groups.get(id).get(room));
+            }
+            occupancy.put(room, union);
+        }
+    }
+
+    private static boolean isClear(BitSet bits, int from, int to) {
+        int next = bits.nextSetBit(from);
+        return next < 0 || next >= to;
+    }
+
+    /**
+     * @return start of the slot in epoch milliseconds
+     */
+    private long slotStart(int slot) {
+        return (originMinutes + (long) slot * slotMinutes) * 60_000L;
+    }
+
+    /**
+     * @param up round up to the next slot boundary instead of down
+     */
+    private int slot(Date date, boolean up) {
+        long minutes = Math.floorDiv(date.getTime(), 60_000L) - originMinutes;
+        long slot = up ? Math.floorDiv(minutes + slotMinutes - 1, slotMinutes) : Math.floorDiv(minutes, slotMinutes);
+        return (int) Math.max(Math.min(slot, Integer.MAX_VALUE), Integer.MIN_VALUE);
+    }
+}
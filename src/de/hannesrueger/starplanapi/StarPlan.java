@@ -1,32 +1,157 @@
 package de.hannesrueger.starplanapi;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
-import java.net.HttpURLConnection;
-import java.net.URI;
-import java.net.URL;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import processing.data.JSONArray;
-import processing.data.JSONObject;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
 
 /**
  * This class is a Java API for loading information from the StarPlan website.
  * There is also a StarPlanHelper class with some useful methods.
  * If logged in, you can also retrieve your saved view parameters to get your
  * timetable.
+ * A StarPlan instance is thread safe and can be shared by all threads.
  * @author Hannes Rüger
  */
 public class StarPlan {
-    String baseUrl;
-    private String sessionId;
+    final String baseUrl;
+    private volatile String sessionId;
+    private volatile boolean sessionExpired;
+    private final StarPlanTransport transport;
+    private volatile StarPlanResponseCache responseCache;
+    private volatile StarPlanCatalogCache catalogCache;
+    private volatile StarPlanMetricsListener metrics = StarPlanMetricsListener.NONE;
+    private volatile StarPlanScheduler scheduler;
+    /**
+     * Instance holding the session and settings, this unless created by withPriority
+     */
+    private final StarPlan root;
+    private final StarPlanScheduler.Priority priority;
 
     StarPlan(String baseUrl) {
+        this(baseUrl, new StarPlanHttpClientTransport());
+    }
+
+    /**
+     * @param baseUrl
+     * @param transport used for all requests, e.g. a StarPlanHttpClientTransport
+     *            with custom timeouts
+     */
+    StarPlan(String baseUrl, StarPlanTransport transport) {
         this.baseUrl = baseUrl;
+        this.transport = transport;
+        this.root = this;
+        this.priority = StarPlanScheduler.Priority.INTERACTIVE;
+    }
+
+    private StarPlan(StarPlan root, StarPlanScheduler.Priority priority) {
+        this.baseUrl = root.baseUrl;
+        this.transport = root.transport;
+        this.root = root;
+        this.priority = priority;
+    }
+
+    /**
+     * Creates a view of this instance whose requests are scheduled with
+     * another priority. The view shares the session, caches, metrics and
+     * scheduler, e.g. a crawler uses a BACKGROUND view.
+     * @param priority
+     * @return StarPlan sending all requests with the given priority
+     */
+    StarPlan withPriority(StarPlanScheduler.Priority priority) {
+        return priority == this.priority ? this : new StarPlan(root, priority);
+    }
+
+    /**
+     * Creates a new instance without a session which shares the transport,
+     * caches, metrics listener and scheduler of this one. Settings changed
+     * later are not shared.
+     * @return StarPlan for another account
+     */
+    StarPlan newSession() {
+        StarPlan session = new StarPlan(baseUrl, transport);
+        session.responseCache = root.responseCache;
+        session.catalogCache = root.catalogCache;
+        session.metrics = root.metrics;
+        session.scheduler = root.scheduler;
+        return session.withPriority(priority);
+    }
+
+    /**
+     * @return true if the user is logged in
+     */
+    boolean isLoggedIn() {
+        return root.sessionId != null;
+    }
+
+    /**
+     * The session expires if the server answered a request with 401/403 or
+     * with a new session cookie. Requests then return the data of a user who
+     * is not logged in until login is called again.
+     * @return true if the session of the last login has expired
+     */
+    boolean isSessionExpired() {
+        return root.sessionExpired;
+    }
+
+    /**
+     * Enables the persistent response cache for semesters, study programs,
+     * groups and timetables
+     * @param responseCache cache to use, null to disable caching
+     */
+    void setResponseCache(StarPlanResponseCache responseCache) {
+        root.responseCache = responseCache;
+    }
+
+    /**
+     * Enables the in-memory cache for getSemesters, getStudyPrograms and
+     * getGroups, including their async variants
+     * @param catalogCache cache to use, null to disable caching
+     */
+    void setCatalogCache(StarPlanCatalogCache catalogCache) {
+        root.catalogCache = catalogCache;
+    }
+
+    /**
+     * Sets the listener which receives the latencies, sizes, cache lookups,
+     * retries and errors of all requests, e.g. a StarPlanMetrics
+     * @param metrics listener to use, null to disable instrumentation
+     */
+    void setMetricsListener(StarPlanMetricsListener metrics) {
+        root.metrics = metrics != null ? metrics : StarPlanMetricsListener.NONE;
+    }
+
+    /**
+     * @return the current metrics listener, never null
+     */
+    StarPlanMetricsListener getMetricsListener() {
+        return root.metrics;
+    }
+
+    /**
+     * Enables rate limiting, adaptive concurrency and retries for all requests
+     * @param scheduler scheduler to use, null to send every request immediately
+     */
+    void setScheduler(StarPlanScheduler scheduler) {
+        root.scheduler = scheduler;
     }
 
     /**
@@ -40,33 +165,13 @@ public class StarPlan {
             System.out.println("Login failed - wrong credentials?");
             return;
         }
-        StarPlanMyView myView = splan.getMyViewParameters();
-        System.out.println(myView);
-        StarPlanSemester[] semesters = splan.getSemesters();
-        StarPlanSemester mySemester = semesters[0];
-        for (StarPlanSemester semester : semesters) {
-            if (semester.id == myView.semesterId) {
-                mySemester = semester;
-                break;
-            }
-        }
-        StarPlanStudyProgram[] studyPrograms = splan.getStudyPrograms(mySemester);
-        StarPlanStudyProgram myStudyProgram = studyPrograms[0];
-        for (StarPlanStudyProgram studyProgram : studyPrograms) {
-            if (studyProgram.id == myView.studyProgramId) {
-                myStudyProgram = studyProgram;
-                break;
-            }
-        }
-        StarPlanGroup[] groups = splan.getGroups(mySemester, myStudyProgram);
-        StarPlanGroup myGroup = groups[0];
-        for (StarPlanGroup group : groups) {
-            if (group.shortname.equals(myView.groupShortName)) {
-                myGroup = group;
-                break;
-            }
+        StarPlanResult<StarPlanMyTimetable> myTimetable = splan.loadMyTimetable();
+        if (!myTimetable.isOk()) {
+            System.out.println(myTimetable.error());
+            return;
         }
-        StarPlanLesson[] events = StarPlanHelpers.sortEvents(splan.getTimeTableIcal(mySemester, myGroup));
+        System.out.println(myTimetable.value());
+        StarPlanLesson[] events = StarPlanHelpers.sortEvents(myTimetable.value().lessons);
         System.out.println(events[0]);
     }
 
@@ -77,45 +182,40 @@ public class StarPlan {
      * @return true if login was successful
      */
     public boolean login(String username, String password) {
+        return loginResult(username, password).isOk();
+    }
+
+    /**
+     * Logs in to the StarPlan website
+     * @param username
+     * @param password
+     * @return StarPlanResult which is ok if login was successful, with an
+     *         UNAUTHORIZED error if the credentials are wrong
+     */
+    public StarPlanResult<Boolean> loginResult(String username, String password) {
         String url = baseUrl + "/json?m=login";
-        try {
-            URL obj = new URI(url).toURL();
-            HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-            con.setRequestMethod("POST");
-            con.setDoOutput(true);
-            con.setRequestProperty("Content-Type", "text/plain;charset=UTF-8");
-            String body = username + "&" + password;
-            con.getOutputStream().write(body.getBytes());
-            String result;
-            BufferedInputStream bis = new BufferedInputStream(con.getInputStream());
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            int result2 = bis.read();
-            while (result2 != -1) {
-                buf.write((byte) result2);
-                result2 = bis.read();
-            }
-            result = buf.toString();
-            JSONArray json = JSONArray.parse(result);
-            if (!((JSONObject) (((JSONArray) json.get(0)).get(0))).getString("res").equals("ok")) {
-                throw new RuntimeException("Login failed");
-            }
-
-            List<String> allCookies = con.getHeaderFields().get("Set-Cookie");
-            for (String cookie : allCookies) {
+        StarPlanRequest request = StarPlanRequest.post(url, username + "&" + password)
+                .header("Content-Type", "text/plain;charset=UTF-8");
+        StarPlanResult<Boolean> result = result(url, () -> fetch(request, response -> {
+            if (!"ok".equals(parseLogin(response.body()))) {
+                return false;
+            }
+
+            for (String cookie : response.headers("Set-Cookie")) {
                 if (cookie.startsWith("JSESSIONID")) {
-                    sessionId = cookie.split("=")[1].split(";")[0];
+                    root.sessionId = cookie.split("=")[1].split(";")[0];
+                    root.sessionExpired = false;
                 }
             }
             return true;
-        } catch (Exception e) {
-            // 401: login failed
-            if (e.getMessage().contains("401")) {
-                return false;
-            } else {
-                e.printStackTrace();
-                return false;
-            }
+        }));
+        if (result.isOk() && !result.value()) {
+            StarPlanError error = new StarPlanError(StarPlanEndpoint.LOGIN, StarPlanError.Category.UNAUTHORIZED,
+                    0, "Login failed", null);
+            root.metrics.onError(error);
+            return StarPlanResult.failed(error);
         }
+        return result;
     }
 
     /**
@@ -123,71 +223,133 @@ public class StarPlan {
      * @return StarPlanMyView object with the saved view parameters
      */
     public StarPlanMyView getMyViewParameters() {
+        return getMyViewParametersResult().orElse(null);
+    }
+
+    /**
+     * Variant of getMyViewParameters which returns the error instead of null
+     * @return StarPlanResult with the saved view parameters
+     */
+    public StarPlanResult<StarPlanMyView> getMyViewParametersResult() {
         // do get request, get cookies
-        try {
-            URL url = new URI(baseUrl + "/json?m=getpus").toURL();
-            HttpURLConnection con = (HttpURLConnection) url.openConnection();
-            con.setRequestMethod("GET");
-            con.setRequestProperty("Cookie", "JSESSIONID=" + sessionId);
-            // get cookies
-            for (int i = 0; i < con.getHeaderFields().get("Set-Cookie").size(); i++) {
-                String cookies = con.getHeaderFields().get("Set-Cookie").get(i);
-                String key = cookies.split("=")[0];
-                String value = cookies.split("=")[1].split(";")[0];
-
-                if (key.equals("myview")) {
-                    value = value
-                            .replaceAll("%3D", "=")
-                            .replaceAll("%26", "&");
-                    String[] kvPairs = value.split("&");
-                    StarPlanMyView myView = new StarPlanMyView();
-                    for (String kvPair : kvPairs) {
-                        String[] kv = kvPair.split("=");
-                        String k = kv[0];
-                        String v = kv[1];
-                        switch (k) {
-                            case "lan":
-                                myView.lan = v;
-                                break;
-                            case "acc":
-                                myView.acc = Boolean.parseBoolean(v);
-                                break;
-                            case "act":
-                                myView.act = v;
-                                break;
-                            case "sel":
-                                myView.sel = v;
-                                break;
-                            case "pu":
-                                myView.semesterId = Integer.parseInt(v);
-                                break;
-                            case "og":
-                                myView.studyProgramId = Integer.parseInt(v);
-                                break;
-                            case "pg":
-                                myView.groupShortName = v;
-                                break;
-                            case "sd":
-                                myView.sd = Boolean.parseBoolean(v);
-                                break;
-                            case "loc":
-                                myView.loc = Integer.parseInt(v);
-                                break;
-                            case "sa":
-                                myView.sa = Boolean.parseBoolean(v);
-                                break;
-                            case "cb":
-                                myView.cb = v;
-                                break;
-                        }
+        String url = baseUrl + "/json?m=getpus";
+        return result(url, () -> fetch(request(url), StarPlan::parseMyView));
+    }
+
+    /**
+     * Non-blocking variant of getMyViewParameters
+     * @return future with the saved view parameters, null if there are none
+     */
+    public CompletableFuture<StarPlanMyView> getMyViewParametersAsync() {
+        return fetchAsync(request(baseUrl + "/json?m=getpus"), StarPlan::parseMyView);
+    }
+
+    /**
+     * Loads the timetable of the saved view of the logged in user. One getpus
+     * response yields the view and the semesters, study programs and groups
+     * are requested at the same time and the calendar is requested as soon
+     * as the group has been read from the group list.
+     * @return StarPlanResult with the timetable, the error of the first failed request otherwise
+     */
+    public StarPlanResult<StarPlanMyTimetable> loadMyTimetable() {
+        StarPlanMyTimetable timetable = new StarPlanMyTimetable();
+        CompletableFuture<?>[] steps = loadMyTimetable(timetable);
+        // later steps fail as well if an earlier one fails, report the cause
+        StarPlanEndpoint[] endpoints = { StarPlanEndpoint.GETPUS, StarPlanEndpoint.GETOGS,
+                StarPlanEndpoint.GETPGSEXT, StarPlanEndpoint.ICAL };
+        for (int i = 0; i < steps.length; i++) {
+            try {
+                steps[i].get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return StarPlanResult.failed(StarPlanError.of(endpoints[i], e));
+            } catch (ExecutionException | CancellationException e) {
+                return StarPlanResult.failed(StarPlanError.of(endpoints[i], e));
+            }
+        }
+        return StarPlanResult.ok(timetable);
+    }
+
+    /**
+     * Non-blocking variant of loadMyTimetable
+     * @return future with the timetable of the saved view
+     */
+    public CompletableFuture<StarPlanMyTimetable> loadMyTimetableAsync() {
+        StarPlanMyTimetable timetable = new StarPlanMyTimetable();
+        return CompletableFuture.allOf(loadMyTimetable(timetable)).thenApply(done -> timetable);
+    }
+
+    /**
+     * Starts the requests of loadMyTimetable, each step fills its part of
+     * the timetable
+     * @return the getpus, getogs, getPgsExt and ical steps
+     */
+    private CompletableFuture<?>[] loadMyTimetable(StarPlanMyTimetable timetable) {
+        CompletableFuture<StarPlanMyView> view = fetchAsync(request(baseUrl + "/json?m=getpus"), response -> {
+            StarPlanMyView myView = parseMyView(response);
+            StarPlanSemester[] semesters = parseSemesters(response.body());
+            if (myView == null) {
+                throw new IllegalStateException("No saved view, login first");
+            }
+            timetable.myView = myView;
+            timetable.semesters = semesters;
+            timetable.semester = byId(semesters, semester -> semester.id).get(myView.semesterId);
+            if (timetable.semester == null) {
+                throw new IllegalStateException("Unknown semester of the saved view: " + myView.semesterId);
+            }
+            return myView;
+        });
+        CompletableFuture<StarPlanStudyProgram[]> studyPrograms = view
+                .thenCompose(myView -> getStudyProgramsAsync(timetable.semester))
+                .thenApply(programs -> {
+                    timetable.studyPrograms = programs;
+                    timetable.studyProgram = byId(programs, program -> program.id)
+                            .get(timetable.myView.studyProgramId);
+                    if (timetable.studyProgram == null) {
+                        throw new IllegalStateException(
+                                "Unknown study program of the saved view: " + timetable.myView.studyProgramId);
                     }
-                    return myView;
+                    return programs;
+                });
+        // completed by the parser as soon as the group has been read
+        CompletableFuture<StarPlanGroup> group = new CompletableFuture<StarPlanGroup>();
+        CompletableFuture<StarPlanGroup[]> groups = view.thenCompose(myView -> {
+            // the ids of the view are enough, the study programs are not needed
+            String url = baseUrl + "/json?m=getPgsExt&pu=" + myView.semesterId + "&og=" + myView.studyProgramId;
+            return getCatalogAsync(StarPlanCatalogCache.Endpoint.GROUPS, url, body -> parseGroups(body, parsed -> {
+                if (parsed.shortname != null && parsed.shortname.equals(myView.groupShortName)) {
+                    group.complete(parsed);
+                }
+            }));
+        }).thenApply(parsed -> {
+            timetable.groups = parsed;
+            for (StarPlanGroup candidate : parsed) {
+                if (candidate.shortname != null && candidate.shortname.equals(timetable.myView.groupShortName)) {
+                    // the catalog cache may have skipped the parser
+                    group.complete(candidate);
+                    timetable.group = candidate;
+                    return parsed;
                 }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Unknown group of the saved view: " + timetable.myView.groupShortName);
+        });
+        groups.whenComplete((parsed, error) -> {
+            if (error != null) {
+                group.completeExceptionally(error);
+            }
+        });
+        CompletableFuture<StarPlanLesson[]> lessons = group
+                .thenCompose(found -> getTimeTableIcalAsync(timetable.semester, found))
+                .thenApply(loaded -> timetable.lessons = loaded);
+        return new CompletableFuture<?>[] { view, studyPrograms, groups, lessons };
+    }
+
+    private static <T> Map<Integer, T> byId(T[] items, ToIntFunction<T> id) {
+        Map<Integer, T> map = new HashMap<Integer, T>(items.length * 2);
+        for (T item : items) {
+            map.put(id.applyAsInt(item), item);
         }
-        return null;
+        return map;
     }
 
     /**
@@ -195,16 +357,25 @@ public class StarPlan {
      * @return StarPlanSemester array with all semesters
      */
     public StarPlanSemester[] getSemesters() {
+        return getSemestersResult().orElse(null);
+    }
+
+    /**
+     * Variant of getSemesters which returns the error instead of null
+     * @return StarPlanResult with all semesters
+     */
+    public StarPlanResult<StarPlanSemester[]> getSemestersResult() {
         String url = baseUrl + "/json?m=getpus";
-        JSONArray semesterJSON = getArray(url);
-        StarPlanSemester[] semesters = new StarPlanSemester[semesterJSON.size()];
-        for (int i = 0; i < semesterJSON.size(); i++) {
-            JSONObject semester = (JSONObject) semesterJSON.get(i);
-            semesters[i] = new StarPlanSemester(semester.getBoolean("dateasdefault"), semester.getString("enddate"),
-                    semester.getString("name"), semester.getInt("id"), semester.getString("startdate"),
-                    semester.getString("shortname"), semester.getBoolean("visibleonweb"));
-        }
-        return semesters;
+        return getCatalog(StarPlanCatalogCache.Endpoint.SEMESTERS, url, StarPlan::parseSemesters);
+    }
+
+    /**
+     * Non-blocking variant of getSemesters
+     * @return future with all semesters
+     */
+    public CompletableFuture<StarPlanSemester[]> getSemestersAsync() {
+        String url = baseUrl + "/json?m=getpus";
+        return getCatalogAsync(StarPlanCatalogCache.Endpoint.SEMESTERS, url, StarPlan::parseSemesters);
     }
 
     /**
@@ -213,15 +384,29 @@ public class StarPlan {
      * @return StarPlanStudyProgram array with all study programs of the semester
      */
     public StarPlanStudyProgram[] getStudyPrograms(StarPlanSemester semester) {
+        return getStudyProgramsResult(semester).orElse(null);
+    }
+
+    /**
+     * Variant of getStudyPrograms which returns the error instead of null
+     * @param semester
+     * @return StarPlanResult with all study programs of the semester
+     */
+    public StarPlanResult<StarPlanStudyProgram[]> getStudyProgramsResult(StarPlanSemester semester) {
         String url = baseUrl + "/json?m=getogs&pu=" + semester.id;
-        JSONArray studyProgramsJSON = getArray(url);
-        StarPlanStudyProgram[] studyPrograms = new StarPlanStudyProgram[studyProgramsJSON.size()];
-        for (int i = 0; i < studyProgramsJSON.size(); i++) {
-            JSONObject studyProgram = (JSONObject) studyProgramsJSON.get(i);
-            studyPrograms[i] = new StarPlanStudyProgram(studyProgram.getInt("id"), studyProgram.getString("name"),
-                    studyProgram.getString("shortname"));
-        }
-        return studyPrograms;
+        return getCatalog(StarPlanCatalogCache.Endpoint.STUDY_PROGRAMS, url,
+                StarPlan::parseStudyPrograms);
+    }
+
+    /**
+     * Non-blocking variant of getStudyPrograms
+     * @param semester
+     * @return future with all study programs of the semester
+     */
+    public CompletableFuture<StarPlanStudyProgram[]> getStudyProgramsAsync(StarPlanSemester semester) {
+        String url = baseUrl + "/json?m=getogs&pu=" + semester.id;
+        return getCatalogAsync(StarPlanCatalogCache.Endpoint.STUDY_PROGRAMS, url,
+                StarPlan::parseStudyPrograms);
     }
 
     /**
@@ -231,25 +416,33 @@ public class StarPlan {
      * @return StarPlanGroup array with all groups of the study program
      */
     public StarPlanGroup[] getGroups(StarPlanSemester semester, StarPlanStudyProgram studyProgram) {
+        return getGroupsResult(semester, studyProgram).orElse(null);
+    }
+
+    /**
+     * Variant of getGroups which returns the error instead of null
+     * @param semester
+     * @param studyProgram
+     * @return StarPlanResult with all groups of the study program
+     */
+    public StarPlanResult<StarPlanGroup[]> getGroupsResult(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram) {
         String url = baseUrl + "/json?m=getPgsExt&pu=" + semester.id + "&og="
                 + studyProgram.id;
-        JSONArray studyProgramsWithLecturesJSON = getArray(url);
-        StarPlanGroup[] studyProgramsWithLectures = new StarPlanGroup[studyProgramsWithLecturesJSON
-                .size()];
-        for (int i = 0; i < studyProgramsWithLecturesJSON.size(); i++) {
-            JSONObject studyProgramWithLectures = (JSONObject) studyProgramsWithLecturesJSON.get(i);
-            JSONArray lecturesJSON = studyProgramWithLectures.getJSONArray("lectures");
-            StarPlanLecture[] lectures = new StarPlanLecture[lecturesJSON.size()];
-            for (int j = 0; j < lecturesJSON.size(); j++) {
-                JSONObject lecture = (JSONObject) lecturesJSON.get(j);
-                lectures[j] = new StarPlanLecture(lecture.getInt("id"), lecture.getString("name"),
-                        lecture.getString("shortname"));
-            }
-            studyProgramsWithLectures[i] = new StarPlanGroup(studyProgramWithLectures.getInt("id"),
-                    studyProgramWithLectures.getString("name"), studyProgramWithLectures.getString("shortname"),
-                    lectures);
-        }
-        return studyProgramsWithLectures;
+        return getCatalog(StarPlanCatalogCache.Endpoint.GROUPS, url, StarPlan::parseGroups);
+    }
+
+    /**
+     * Non-blocking variant of getGroups
+     * @param semester
+     * @param studyProgram
+     * @return future with all groups of the study program
+     */
+    public CompletableFuture<StarPlanGroup[]> getGroupsAsync(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram) {
+        String url = baseUrl + "/json?m=getPgsExt&pu=" + semester.id + "&og="
+                + studyProgram.id;
+        return getCatalogAsync(StarPlanCatalogCache.Endpoint.GROUPS, url, StarPlan::parseGroups);
     }
 
     /**
@@ -260,39 +453,680 @@ public class StarPlan {
      * @return StarPlanLesson array with all events of the group
      */
     public StarPlanLesson[] getTimeTableIcal(StarPlanSemester semester, StarPlanGroup group) {
-        String url = baseUrl + "/ical?lan=de&puid=" + semester.id + "&type=pg&pgid="
+        return getTimeTableIcalResult(semester, group).orElse(null);
+    }
+
+    /**
+     * Variant of getTimeTableIcal which returns the error instead of null
+     * @param semester
+     * @param group
+     * @return StarPlanResult with all events of the group
+     */
+    public StarPlanResult<StarPlanLesson[]> getTimeTableIcalResult(StarPlanSemester semester, StarPlanGroup group) {
+        String url = icalUrl(semester, group);
+        return result(url, () -> load(url, ICAL));
+    }
+
+    /**
+     * Get the timetable of a group in a semester without loading the whole
+     * calendar into memory. Every event is handed to the consumer as soon as
+     * it has been parsed.
+     * @param semester
+     * @param group
+     * @param consumer receives the events in calendar order
+     * @return true if the whole calendar was read
+     */
+    public boolean getTimeTableIcal(StarPlanSemester semester, StarPlanGroup group,
+            Consumer<StarPlanLesson> consumer) {
+        return getTimeTableIcalResult(semester, group, consumer).isOk();
+    }
+
+    /**
+     * Variant of getTimeTableIcal with a consumer which returns the error
+     * instead of false. Exceptions thrown by the consumer are reported as
+     * PARSE errors.
+     * @param semester
+     * @param group
+     * @param consumer receives the events in calendar order
+     * @return StarPlanResult with the number of events
+     */
+    public StarPlanResult<Integer> getTimeTableIcalResult(StarPlanSemester semester, StarPlanGroup group,
+            Consumer<StarPlanLesson> consumer) {
+        if (root.responseCache != null) {
+            // the cache needs the whole body anyway
+            StarPlanResult<StarPlanLesson[]> lessons = getTimeTableIcalResult(semester, group);
+            if (!lessons.isOk()) {
+                return StarPlanResult.failed(lessons.error());
+            }
+            for (StarPlanLesson lesson : lessons.value()) {
+                consumer.accept(lesson);
+            }
+            return StarPlanResult.ok(lessons.value().length);
+        }
+        String url = icalUrl(semester, group);
+        return result(url, () -> fetch(request(url), response -> {
+            int[] count = new int[1];
+            new IcalParser().parse(response.body(), lesson -> {
+                count[0]++;
+                consumer.accept(lesson);
+            });
+            return count[0];
+        }));
+    }
+
+    /**
+     * Non-blocking variant of getTimeTableIcal
+     * @param semester
+     * @param group
+     * @return future with all events of the group
+     */
+    public CompletableFuture<StarPlanLesson[]> getTimeTableIcalAsync(StarPlanSemester semester,
+            StarPlanGroup group) {
+        return loadAsync(icalUrl(semester, group), ICAL);
+    }
+
+    private String icalUrl(StarPlanSemester semester, StarPlanGroup group) {
+        return baseUrl + "/ical?lan=de&puid=" + semester.id + "&type=pg&pgid="
                 + group.id;
-        String ical = getString(url);
-        IcalParser icalParser = new IcalParser();
-        return icalParser.parse(ical);
     }
 
-    private JSONArray getArray(String url) {
-        String result = getString(url);
-        JSONArray jsonArrayArray = JSONArray.parse(result);
-        JSONArray resultArray = (JSONArray) jsonArrayArray.get(0);
-        return resultArray;
+    static StarPlanMyView parseMyView(StarPlanResponse response) {
+        // get cookies
+        for (String cookies : response.headers("Set-Cookie")) {
+            String key = cookies.split("=")[0];
+            String value = cookies.split("=")[1].split(";")[0];
+
+            if (key.equals("myview")) {
+                value = value
+                        .replaceAll("%3D", "=")
+                        .replaceAll("%26", "&");
+                String[] kvPairs = value.split("&");
+                StarPlanMyView myView = new StarPlanMyView();
+                for (String kvPair : kvPairs) {
+                    String[] kv = kvPair.split("=");
+                    String k = kv[0];
+                    String v = kv[1];
+                    switch (k) {
+                        case "lan":
+                            myView.lan = v;
+                            break;
+                        case "acc":
+                            myView.acc = Boolean.parseBoolean(v);
+                            break;
+                        case "act":
+                            myView.act = v;
+                            break;
+                        case "sel":
+                            myView.sel = v;
+                            break;
+                        case "pu":
+                            myView.semesterId = Integer.parseInt(v);
+                            break;
+                        case "og":
+                            myView.studyProgramId = Integer.parseInt(v);
+                            break;
+                        case "pg":
+                            myView.groupShortName = v;
+                            break;
+                        case "sd":
+                            myView.sd = Boolean.parseBoolean(v);
+                            break;
+                        case "loc":
+                            myView.loc = Integer.parseInt(v);
+                            break;
+                        case "sa":
+                            myView.sa = Boolean.parseBoolean(v);
+                            break;
+                        case "cb":
+                            myView.cb = v;
+                            break;
+                    }
+                }
+                return myView;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Maps the getpus response to semesters without building a json tree
+     * @param body UTF-8 encoded json, not closed by this method
+     */
+    static StarPlanSemester[] parseSemesters(InputStream body) throws IOException {
+        JsonReader json = new JsonReader(body);
+        List<StarPlanSemester> semesters = new ArrayList<StarPlanSemester>();
+        beginResult(json);
+        while (json.hasNext()) {
+            boolean dateAsDefault = false;
+            String endDate = null;
+            String name = null;
+            int id = 0;
+            String startDate = null;
+            String shortName = null;
+            boolean visibleOnWeb = false;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "dateasdefault":
+                        dateAsDefault = json.nextBoolean();
+                        break;
+                    case "enddate":
+                        endDate = json.nextString();
+                        break;
+                    case "name":
+                        name = json.nextString();
+                        break;
+                    case "id":
+                        id = json.nextInt();
+                        break;
+                    case "startdate":
+                        startDate = json.nextString();
+                        break;
+                    case "shortname":
+                        shortName = json.nextString();
+                        break;
+                    case "visibleonweb":
+                        visibleOnWeb = json.nextBoolean();
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            semesters.add(new StarPlanSemester(dateAsDefault, endDate, name, id, startDate, shortName, visibleOnWeb));
+        }
+        endResult(json);
+        return semesters.toArray(new StarPlanSemester[0]);
+    }
+
+    /**
+     * Maps the getogs response to study programs without building a json tree
+     * @param body UTF-8 encoded json, not closed by this method
+     */
+    static StarPlanStudyProgram[] parseStudyPrograms(InputStream body) throws IOException {
+        JsonReader json = new JsonReader(body);
+        List<StarPlanStudyProgram> studyPrograms = new ArrayList<StarPlanStudyProgram>();
+        beginResult(json);
+        while (json.hasNext()) {
+            int id = 0;
+            String name = null;
+            String shortName = null;
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "id":
+                        id = json.nextInt();
+                        break;
+                    case "name":
+                        name = json.nextString();
+                        break;
+                    case "shortname":
+                        shortName = json.nextString();
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            studyPrograms.add(new StarPlanStudyProgram(id, name, shortName));
+        }
+        endResult(json);
+        return studyPrograms.toArray(new StarPlanStudyProgram[0]);
+    }
+
+    /**
+     * Maps the getPgsExt response to groups and their lectures without
+     * building a json tree
+     * @param body UTF-8 encoded json, not closed by this method
+     */
+    static StarPlanGroup[] parseGroups(InputStream body) throws IOException {
+        return parseGroups(body, null);
+    }
+
+    /**
+     * Variant of parseGroups which hands every group to a consumer as soon
+     * as it has been read
+     * @param body UTF-8 encoded json, not closed by this method
+     * @param consumer may be null
+     */
+    static StarPlanGroup[] parseGroups(InputStream body, Consumer<StarPlanGroup> consumer) throws IOException {
+        JsonReader json = new JsonReader(body);
+        List<StarPlanGroup> groups = new ArrayList<StarPlanGroup>();
+        List<StarPlanLecture> lectures = new ArrayList<StarPlanLecture>();
+        beginResult(json);
+        while (json.hasNext()) {
+            int id = 0;
+            String name = null;
+            String shortName = null;
+            lectures.clear();
+            json.beginObject();
+            while (json.hasNext()) {
+                switch (json.nextName()) {
+                    case "id":
+                        id = json.nextInt();
+                        break;
+                    case "name":
+                        name = json.nextString();
+                        break;
+                    case "shortname":
+                        shortName = json.nextString();
+                        break;
+                    case "lectures":
+                        if (json.peek() == JsonReader.Token.NULL) {
+                            json.skipValue();
+                            break;
+                        }
+                        json.beginArray();
+                        while (json.hasNext()) {
+                            lectures.add(parseLecture(json));
+                        }
+                        json.endArray();
+                        break;
+                    default:
+                        json.skipValue();
+                }
+            }
+            json.endObject();
+            StarPlanGroup group = new StarPlanGroup(id, name, shortName, lectures.toArray(new StarPlanLecture[0]));
+            groups.add(group);
+            if (consumer != null) {
+                consumer.accept(group);
+            }
+        }
+        endResult(json);
+        return groups.toArray(new StarPlanGroup[0]);
+    }
+
+    private static StarPlanLecture parseLecture(JsonReader json) throws IOException {
+        int id = 0;
+        String name = null;
+        String shortName = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            switch (json.nextName()) {
+                case "id":
+                    id = json.nextInt();
+                    break;
+                case "name":
+                    name = json.nextString();
+                    break;
+                case "shortname":
+                    shortName = json.nextString();
+                    break;
+                default:
+                    json.skipValue();
+            }
+        }
+        json.endObject();
+        return new StarPlanLecture(id, name, shortName);
+    }
+
+    /**
+     * Reads the "res" property of the login response
+     * @param body UTF-8 encoded json, not closed by this method
+     * @return the value of res, null if it is missing
+     */
+    static String parseLogin(InputStream body) throws IOException {
+        JsonReader json = new JsonReader(body);
+        String res = null;
+        beginResult(json);
+        if (json.hasNext()) {
+            json.beginObject();
+            while (json.hasNext()) {
+                if (json.nextName().equals("res")) {
+                    res = json.nextString();
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+        }
+        endResult(json);
+        return res;
+    }
+
+    /**
+     * The json endpoints wrap their result into another array: [[...]]
+     */
+    private static void beginResult(JsonReader json) throws IOException {
+        json.beginArray();
+        json.beginArray();
     }
 
-    private String getString(String url) {
+    private static void endResult(JsonReader json) throws IOException {
+        json.endArray();
+        while (json.hasNext()) {
+            json.skipValue();
+        }
+        json.endArray();
+    }
+
+    /**
+     * Parses a response body
+     */
+    private interface BodyParser<T> {
+        T parse(InputStream body) throws IOException;
+    }
+
+    /**
+     * Parses a whole response including its headers
+     */
+    private interface ResponseParser<T> {
+        T parse(StarPlanResponse response) throws IOException;
+    }
+
+    private static final BodyParser<StarPlanLesson[]> ICAL = body -> new IcalParser().parse(body);
+
+    /**
+     * Runs a request and turns its exception into a StarPlanError. The error
+     * has already been reported to the metrics listener by fetch.
+     */
+    private <T> StarPlanResult<T> result(String url, Callable<T> call) {
         try {
-            URL obj = new URI(url).toURL();
-            HttpURLConnection con = (HttpURLConnection) obj.openConnection();
-            con.setRequestMethod("GET");
-            con.setRequestProperty("Cookie", "JSESSIONID=" + sessionId);
-            String result;
-            BufferedInputStream bis = new BufferedInputStream(con.getInputStream());
-            ByteArrayOutputStream buf = new ByteArrayOutputStream();
-            int result2 = bis.read();
-            while (result2 != -1) {
-                buf.write((byte) result2);
-                result2 = bis.read();
-            }
-            result = buf.toString();
-            return result;
+            return StarPlanResult.ok(call.call());
         } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return StarPlanResult.failed(StarPlanError.of(StarPlanEndpoint.of(url), e));
+        }
+    }
+
+    /**
+     * Like load, but served from the catalog cache if one is set
+     */
+    private <T> StarPlanResult<T> getCatalog(StarPlanCatalogCache.Endpoint endpoint, String url,
+            BodyParser<T> parser) {
+        StarPlanCatalogCache cache = root.catalogCache;
+        if (cache == null) {
+            return result(url, () -> load(url, parser));
+        }
+        boolean[] loaded = new boolean[1];
+        StarPlanResult<T> result = result(url, () -> copy(cache.get(endpoint, url, () -> {
+            loaded[0] = true;
+            return load(url, parser);
+        })));
+        catalogLookup(url, loaded[0]);
+        return result;
+    }
+
+    private <T> CompletableFuture<T> getCatalogAsync(StarPlanCatalogCache.Endpoint endpoint, String url,
+            BodyParser<T> parser) {
+        StarPlanCatalogCache cache = root.catalogCache;
+        if (cache == null) {
+            return loadAsync(url, parser);
+        }
+        boolean[] loaded = new boolean[1];
+        CompletableFuture<T> result = cache.getAsync(endpoint, url, () -> {
+            loaded[0] = true;
+            return loadAsync(url, parser);
+        });
+        catalogLookup(url, loaded[0]);
+        return result.thenApply(StarPlan::copy);
+    }
+
+    private void catalogLookup(String url, boolean loaded) {
+        if (!loaded) {
+            root.metrics.onCacheLookup(StarPlanEndpoint.of(url), true);
+        } else if (root.responseCache == null) {
+            // otherwise fromCache reports the lookup
+            root.metrics.onCacheLookup(StarPlanEndpoint.of(url), false);
+        }
+    }
+
+    /**
+     * Returned by fromCache if the body of a revalidated entry has been evicted
+     */
+    private static final Object EVICTED = new Object();
+
+    /**
+     * Loads and parses a resource. If a response cache is set, the request is
+     * sent conditionally and unchanged bodies are not parsed again.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T load(String url, BodyParser<T> parser) throws IOException, InterruptedException {
+        StarPlanResponseCache cache = root.responseCache;
+        if (cache == null) {
+            return fetch(request(url), response -> parser.parse(response.body()));
+        }
+        StarPlanResponseCache.Entry entry = cache.get(url);
+        Object value = fetch(conditionalRequest(url, entry),
+                response -> fromCache(cache, url, entry, response, parser));
+        if (value == EVICTED) {
+            value = fetch(request(url), response -> fromCache(cache, url, null, response, parser));
+        }
+        return (T) value;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> loadAsync(String url, BodyParser<T> parser) {
+        StarPlanResponseCache cache = root.responseCache;
+        if (cache == null) {
+            return fetchAsync(request(url), response -> parser.parse(response.body()));
+        }
+        StarPlanResponseCache.Entry entry = cache.get(url);
+        return fetchAsync(conditionalRequest(url, entry), response -> fromCache(cache, url, entry, response, parser))
+                .thenCompose(value -> value != EVICTED ? CompletableFuture.completedFuture(value)
+                        : fetchAsync(request(url), response -> fromCache(cache, url, null, response, parser)))
+                .thenApply(value -> (T) value);
+    }
+
+    private StarPlanRequest conditionalRequest(String url, StarPlanResponseCache.Entry entry) {
+        StarPlanRequest request = request(url);
+        if (entry != null) {
+            if (entry.etag != null) {
+                request.header("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified != null) {
+                request.header("If-Modified-Since", entry.lastModified);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * @return the parsed body, EVICTED if the server answered 304 but the
+     *         cached body is gone, the request has to be sent unconditionally then
+     */
+    private Object fromCache(StarPlanResponseCache cache, String url, StarPlanResponseCache.Entry entry,
+            StarPlanResponse response, BodyParser<?> parser) throws IOException {
+        String etag = response.header("ETag");
+        String lastModified = response.header("Last-Modified");
+        boolean hit = true;
+        if (response.status == 304 && entry != null) {
+            cache.revalidated(entry, etag, lastModified);
+        } else {
+            byte[] body = response.bytes();
+            entry = cache.put(url, etag, lastModified, body);
+            if (entry.parsed == null) {
+                entry.parsed = parser.parse(new ByteArrayInputStream(body));
+                hit = false;
+            }
+        }
+        Object parsed = entry.parsed;
+        if (parsed == null) {
+            // known body but not parsed since the last restart
+            byte[] body = cache.body(entry);
+            if (body == null) {
+                return EVICTED;
+            }
+            parsed = parser.parse(new ByteArrayInputStream(body));
+            entry.parsed = parsed;
+        }
+        root.metrics.onCacheLookup(StarPlanEndpoint.of(url), hit);
+        return copy(parsed);
+    }
+
+    /**
+     * Copies cached arrays, callers may reorder them, e.g. with StarPlanHelpers.sortEvents
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T copy(T value) {
+        if (value instanceof Object[]) {
+            return (T) ((Object[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * Creates a GET request carrying the session cookie
+     */
+    private StarPlanRequest request(String url) {
+        StarPlanRequest request = StarPlanRequest.get(url);
+        String session = root.sessionId;
+        if (session != null) {
+            request.header("Cookie", "JSESSIONID=" + session);
+        }
+        return request;
+    }
+
+    /**
+     * Sends a request, parses the response and reports it to the metrics listener
+     */
+    private <T> T fetch(StarPlanRequest request, ResponseParser<T> parser) throws IOException, InterruptedException {
+        Exchange exchange = new Exchange(request.url);
+        try (StarPlanResponse response = exchange.send(request)) {
+            T value = parser.parse(response);
+            exchange.finished();
+            return value;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            exchange.failed(e);
+            throw e;
+        }
+    }
+
+    private <T> CompletableFuture<T> fetchAsync(StarPlanRequest request, ResponseParser<T> parser) {
+        Exchange exchange = new Exchange(request.url);
+        return exchange.sendAsync(request).thenApply(response -> {
+            try (StarPlanResponse r = response) {
+                T value = parser.parse(r);
+                exchange.finished();
+                return value;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).whenComplete((value, error) -> {
+            if (error != null) {
+                exchange.failed(error);
+            }
+        });
+    }
+
+    /**
+     * Marks the session as expired if the server does not accept it anymore,
+     * i.e. answers with 401/403 or starts a new session. Only requests sent
+     * with the current session count, a late response to a request sent
+     * before the last login says nothing about the new session.
+     */
+    private void checkSession(StarPlanRequest request, StarPlanResponse response) {
+        String session = root.sessionId;
+        if (session == null || !("JSESSIONID=" + session).equals(request.headers.get("Cookie"))) {
+            return;
+        }
+        if (response.status == 401 || response.status == 403) {
+            root.sessionExpired = true;
+            return;
+        }
+        for (String cookie : response.headers("Set-Cookie")) {
+            if (cookie.startsWith("JSESSIONID") && !cookie.split("=")[1].split(";")[0].equals(session)) {
+                root.sessionExpired = true;
+            }
+        }
+    }
+
+    private static void checkStatus(StarPlanRequest request, StarPlanResponse response) throws IOException {
+        if (response.status >= 400) {
+            response.close();
+            throw new StarPlanHttpException(response.status, request.url);
+        }
+    }
+
+    /**
+     * Measures one request. The time until the headers arrived and the time
+     * spent reading the body count as network time, the rest as parse time.
+     */
+    private final class Exchange {
+        private final StarPlanEndpoint endpoint;
+        private final long started = System.nanoTime();
+        private long headerNanos;
+        private MeteredInputStream body;
+
+        Exchange(String url) {
+            this.endpoint = StarPlanEndpoint.of(url);
+        }
+
+        StarPlanResponse send(StarPlanRequest request) throws IOException, InterruptedException {
+            StarPlanScheduler s = root.scheduler;
+            StarPlanResponse response = s != null ? s.send(transport, request, priority, root.metrics)
+                    : transport.send(request);
+            return received(request, response);
+        }
+
+        CompletableFuture<StarPlanResponse> sendAsync(StarPlanRequest request) {
+            StarPlanScheduler s = root.scheduler;
+            CompletableFuture<StarPlanResponse> future = s != null
+                    ? s.sendAsync(transport, request, priority, root.metrics)
+                    : transport.sendAsync(request);
+            return future.thenApply(response -> {
+                try {
+                    return received(request, response);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        private StarPlanResponse received(StarPlanRequest request, StarPlanResponse response) throws IOException {
+            headerNanos = System.nanoTime() - started;
+            if (endpoint != StarPlanEndpoint.LOGIN) {
+                checkSession(request, response);
+            }
+            checkStatus(request, response);
+            body = new MeteredInputStream(response.body());
+            return new StarPlanResponse(response.status, response.headers, body);
+        }
+
+        void finished() {
+            long network = headerNanos + body.nanos;
+            root.metrics.onRequest(endpoint, network, System.nanoTime() - started - network, body.bytes);
+        }
+
+        void failed(Throwable error) {
+            root.metrics.onError(StarPlanError.of(endpoint, error));
+        }
+    }
+
+    /**
+     * Counts the bytes read from a body and the time spent waiting for them
+     */
+    private static class MeteredInputStream extends FilterInputStream {
+        long bytes;
+        long nanos;
+
+        MeteredInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int b = super.read();
+            nanos += System.nanoTime() - start;
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int n = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (n > 0) {
+                bytes += n;
+            }
+            return n;
         }
     }
 
@@ -300,54 +1134,131 @@ public class StarPlan {
      * Legacy method to get the timetable of a group in a semester
      * Since the API does not return json for that endpoint but only
      * html, that was parsed and used to get the timetable.
-     * Because the pixel-based position calculation is the only method
-     * which can be used to link the events to the days, this method
-     * was always a bit unreliable.
-     * @deprecated Use getTimeTableIcal instead
+     * Prints the lessons of the current week.
+     * @deprecated Use getTimeTableIcal or getTimeTableWeek instead
      */
+    @Deprecated
     public void getTimeTableWeekHtml(StarPlanSemester semester, StarPlanStudyProgram studyProgram,
             StarPlanGroup group) {
-        String url = baseUrl + "/json?m=getTT&sel=pg&pu=" + semester.id + "&og="
+        StarPlanResult<StarPlanWeekLesson[]> result = getTimeTableWeekResult(semester, studyProgram, group,
+                LocalDate.now());
+        if (!result.isOk()) {
+            System.out.println(result.error());
+            return;
+        }
+        for (StarPlanWeekLesson lesson : result.value()) {
+            System.out.println(lesson);
+        }
+    }
+
+    /**
+     * Get the lessons of a week from the html week view. Unlike the ical
+     * feed, it contains the type of the lessons.
+     * @param semester
+     * @param studyProgram
+     * @param group
+     * @param day any day of the week
+     * @return StarPlanWeekLesson array with the lessons of the week, null if the request failed
+     */
+    public StarPlanWeekLesson[] getTimeTableWeek(StarPlanSemester semester, StarPlanStudyProgram studyProgram,
+            StarPlanGroup group, LocalDate day) {
+        return getTimeTableWeekResult(semester, studyProgram, group, day).orElse(null);
+    }
+
+    /**
+     * Variant of getTimeTableWeek which returns the error instead of null
+     * @param semester
+     * @param studyProgram
+     * @param group
+     * @param day any day of the week
+     * @return StarPlanResult with the lessons of the week
+     */
+    public StarPlanResult<StarPlanWeekLesson[]> getTimeTableWeekResult(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram, StarPlanGroup group, LocalDate day) {
+        String url = weekUrl(semester, studyProgram, group, day);
+        return result(url, () -> load(url, WEEK_HTML));
+    }
+
+    /**
+     * Non-blocking variant of getTimeTableWeek
+     * @param semester
+     * @param studyProgram
+     * @param group
+     * @param day any day of the week
+     * @return future with the lessons of the week
+     */
+    public CompletableFuture<StarPlanWeekLesson[]> getTimeTableWeekAsync(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram, StarPlanGroup group, LocalDate day) {
+        return loadAsync(weekUrl(semester, studyProgram, group, day), WEEK_HTML);
+    }
+
+    /**
+     * Get the lessons of several weeks from the html week view. All weeks
+     * are requested at the same time, a scheduler set with setScheduler
+     * limits the concurrency.
+     * @param semester
+     * @param studyProgram
+     * @param group
+     * @param from any day of the first week
+     * @param to any day of the last week
+     * @return future with the lessons of all weeks ordered by date and start
+     */
+    public CompletableFuture<StarPlanWeekLesson[]> getTimeTableWeeksAsync(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram, StarPlanGroup group, LocalDate from, LocalDate to) {
+        List<CompletableFuture<StarPlanWeekLesson[]>> weeks = new ArrayList<CompletableFuture<StarPlanWeekLesson[]>>();
+        for (LocalDate week = monday(from); !week.isAfter(to); week = week.plusWeeks(1)) {
+            weeks.add(getTimeTableWeekAsync(semester, studyProgram, group, week));
+        }
+        return CompletableFuture.allOf(weeks.toArray(new CompletableFuture<?>[0])).thenApply(done -> weeks.stream()
+                .flatMap(week -> Arrays.stream(week.join()))
+                .sorted(Comparator.comparing((StarPlanWeekLesson lesson) -> lesson.date,
+                        Comparator.nullsFirst(Comparator.naturalOrder()))
+                        .thenComparing(lesson -> lesson.start, Comparator.nullsFirst(Comparator.naturalOrder())))
+                .toArray(StarPlanWeekLesson[]::new));
+    }
+
+    /**
+     * Variant of getTimeTableWeeksAsync which waits for all weeks
+     * @param semester
+     * @param studyProgram
+     * @param group
+     * @param from any day of the first week
+     * @param to any day of the last week
+     * @return StarPlanResult with the lessons of all weeks, the first error if any week failed
+     */
+    public StarPlanResult<StarPlanWeekLesson[]> getTimeTableWeeksResult(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram, StarPlanGroup group, LocalDate from, LocalDate to) {
+        String url = weekUrl(semester, studyProgram, group, from);
+        return result(url, () -> getTimeTableWeeksAsync(semester, studyProgram, group, from, to).get());
+    }
+
+    private String weekUrl(StarPlanSemester semester, StarPlanStudyProgram studyProgram, StarPlanGroup group,
+            LocalDate day) {
+        return baseUrl + "/json?m=getTT&sel=pg&pu=" + semester.id + "&og="
                 + studyProgram.id + "&pg=" + group.shortname
-                + "&sd=true&dfc=2024-06-04&loc=1&sa=false&cb=o";
-        String html = getString(url);
-        System.out.println(html);
-        String dateRegex = "<div class=\"ttweekdaycell\" style=\"width:(\\d+)px; left:\\d+px;\"><span class=\"ttdaytext\" data-i18n=\".*?\">.*?<\\/span><div class=\"ttdatetext\"><span data-date=\"(\\d{4})-(\\d{2})-(\\d{2})\">.*?<\\/span><\\/div><\\/div>";
-        // get the widths of all days
-        Pattern pattern = Pattern.compile(dateRegex);
-        Matcher matcher = pattern.matcher(html);
-        int[] dayWidths = new int[5];
-        for (int i = 0; i < 5; i++) {
-            matcher.find();
-            dayWidths[i] = Integer.parseInt(matcher.group(1));
-        }
-        int[] cummulatedDayWidths = new int[5];
-        cummulatedDayWidths[0] = 0;
-        for (int i = 1; i < 5; i++) {
-            cummulatedDayWidths[i] = cummulatedDayWidths[i - 1] + dayWidths[i - 1];
-        }
-
-        String lessonRegex = "<div style=\"position:absolute; top:\\d+px; left:(-?\\d+)px;  width:\\d+px; height:\\d+px;\" class=\"ttevent weeklyg\" .*?><div class=\"tooltip\">.*?<\\/div>(.*?)<br\\/>.*?>(.*?)<\\/a><br\\/>(.*?)<br\\/>(.*?)<br\\/>(.*?)<br\\/>.*?<\\/div><\\/div>";
-        pattern = Pattern.compile(lessonRegex);
-        matcher = pattern.matcher(html);
-
-        while (matcher.find()) {
-            int left = Integer.parseInt(matcher.group(1));
-            String time = matcher.group(2);
-            String lecture = matcher.group(3);
-            String room = matcher.group(4);
-            String lecturer = matcher.group(5);
-            String type = matcher.group(6);
-            int day = 0;
-            for (int i = 0; i < 5; i++) {
-                if (left < cummulatedDayWidths[i]) {
-                    day = i;
-                    break;
-                }
-            }
-            System.out.println("Day: " + day + " Time: " + time + " Lecture: " + lecture + " Room: " + room
-                    + " Lecturer: " + lecturer + " Type: " + type);
+                + "&sd=true&dfc=" + monday(day) + "&loc=1&sa=false&cb=o";
+    }
+
+    private static LocalDate monday(LocalDate day) {
+        return day.minusDays(day.getDayOfWeek().getValue() - DayOfWeek.MONDAY.getValue());
+    }
+
+    private static final BodyParser<StarPlanWeekLesson[]> WEEK_HTML = body -> new WeekHtmlParser()
+            .parse(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+
+    /**
+     * Extracts the lessons of the getTT week view
+     * @param html
+     * @return one line per lesson
+     */
+    static List<String> parseTimeTableWeekHtml(String html) {
+        List<String> lessons = new ArrayList<String>();
+        for (StarPlanWeekLesson lesson : new WeekHtmlParser().parse(html)) {
+            String time = lesson.start != null ? lesson.start + " - " + lesson.end : null;
+            lessons.add("Day: " + lesson.day + " Time: " + time + " Lecture: " + lesson.lecture + " Room: "
+                    + lesson.room + " Lecturer: " + lesson.lecturer + " Type: " + lesson.type);
         }
+        return lessons;
     }
 }
 
@@ -459,65 +1370,113 @@ class StarPlanLesson {
         return "start: " + start + " end: " + end + " summary: " + summary + " id: " + id + " location: " + location
                 + " description: " + description;
     }
+
+    /**
+     * @return the fields of the description, parsed on every call
+     */
+    StarPlanLessonDescription details() {
+        return StarPlanLessonDescription.parse(description);
+    }
+
+    /**
+     * Splits a list like LOCATION or the lecturers of the description,
+     * several values are separated by ','
+     * @param list
+     * @return the trimmed, non-empty values
+     */
+    static List<String> splitList(String list) {
+        List<String> values = new ArrayList<String>(1);
+        for (String value : list.split(",")) {
+            value = value.trim();
+            if (!value.isEmpty()) {
+                values.add(value);
+            }
+        }
+        return values;
+    }
+}
+
+/**
+ * Entity class for the fields of a lesson DESCRIPTION like
+ * "Dozent: X\nTyp: Vorlesung\nKurs: 123456\nVeranstaltung: Y"
+ * @author Hannes Rüger
+ */
+class StarPlanLessonDescription {
+    String lecturer;
+    String type;
+    String course;
+    String lecture;
+
+    /**
+     * Parses a description in a single pass, unknown lines are ignored
+     * @param description
+     * @return the fields, null where a line is missing or empty
+     */
+    static StarPlanLessonDescription parse(String description) {
+        StarPlanLessonDescription result = new StarPlanLessonDescription();
+        if (description == null) {
+            return result;
+        }
+        int start = 0;
+        while (start < description.length()) {
+            int end = description.indexOf('\n', start);
+            if (end < 0) {
+                end = description.length();
+            }
+            int colon = description.indexOf(':', start);
+            if (colon > start && colon < end) {
+                String value = value(description, colon + 1, end);
+                if (description.startsWith("Dozent", start) && colon - start == 6) {
+                    result.lecturer = value;
+                } else if (description.startsWith("Typ", start) && colon - start == 3) {
+                    result.type = value;
+                } else if (description.startsWith("Kurs", start) && colon - start == 4) {
+                    result.course = value;
+                } else if (description.startsWith("Veranstaltung", start) && colon - start == 13) {
+                    result.lecture = value;
+                }
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    private static String value(String description, int from, int to) {
+        while (from < to && Character.isWhitespace(description.charAt(from))) {
+            from++;
+        }
+        while (to > from && Character.isWhitespace(description.charAt(to - 1))) {
+            to--;
+        }
+        return from < to ? description.substring(from, to) : null;
+    }
+
+    public String toString() {
+        return "lecturer: " + lecturer + " type: " + type + " course: " + course + " lecture: " + lecture;
+    }
 }
 
 /**
- * Helper class to parse ical strings
+ * Entity class for the lessons of the html week view
  * @author Hannes Rüger
  */
-class IcalParser {
-    public StarPlanLesson[] parse(String ical) {
-        String[] lines = ical.split("\n");
-
-        List<StarPlanLesson> events = new ArrayList<StarPlanLesson>();
-        StarPlanLesson event = null;
-
-        // remove lines until first BEGIN:VEVENT
-        int i = 0;
-        while (!lines[i].startsWith("BEGIN:VEVENT")) {
-            i++;
-        }
-
-        for (int j = i; j < lines.length; j++) {
-            String line = lines[j];
-            if (line.startsWith("BEGIN:VEVENT")) {
-                event = new StarPlanLesson();
-            } else if (line.startsWith("DTSTART")) {
-                String[] parts = line.split(":");
-                event.start = parseDate(parts[1]);
-            } else if (line.startsWith("DTEND")) {
-                String[] parts = line.split(":");
-                event.end = parseDate(parts[1]);
-            } else if (line.startsWith("SUMMARY")) {
-                String[] parts = line.split(":");
-                event.summary = parts[1];
-            } else if (line.startsWith("UID")) {
-                String[] parts = line.split(":");
-                event.id = parts[1];
-            } else if (line.startsWith("LOCATION")) {
-                String[] parts = line.split(":");
-                event.location = parts[1];
-            } else if (line.startsWith("DESCRIPTION")) {
-                String[] parts = line.split(":");
-                event.description = parts[1];
-            } else if (line.startsWith("END:VEVENT")) {
-                events.add(event);
-            }
-        }
-
-        return events.toArray(new StarPlanLesson[0]);
-    }
-
-    @SuppressWarnings("deprecation")
-    private Date parseDate(String dateString) {
-        Date date = new Date();
-        date.setYear(Integer.parseInt(dateString.substring(0, 4)));
-        date.setMonth(Integer.parseInt(dateString.substring(4, 6)));
-        date.setDate(Integer.parseInt(dateString.substring(6, 8)));
-        date.setHours(Integer.parseInt(dateString.substring(9, 11)));
-        date.setMinutes(Integer.parseInt(dateString.substring(11, 13)));
-        date.setSeconds(0);
-        return date;
+class StarPlanWeekLesson {
+    String id;
+    /**
+     * index of the day column, -1 if the lesson is outside of all columns
+     */
+    int day;
+    LocalDate date;
+    LocalTime start;
+    LocalTime end;
+    String lecture;
+    String room;
+    String lecturer;
+    String type;
+
+    public String toString() {
+        return "id: " + id + " day: " + day + " date: " + date + " start: " + start + " end: " + end + " lecture: "
+                + lecture + " room: " + room + " lecturer: " + lecturer + " type: " + type;
     }
 }
 
@@ -545,6 +1504,27 @@ class StarPlanMyView {
     }
 }
 
+/**
+ * Timetable of the saved view of a user, see StarPlan.loadMyTimetable
+ * @author Hannes Rüger
+ */
+class StarPlanMyTimetable {
+    StarPlanMyView myView;
+    StarPlanSemester semester;
+    StarPlanStudyProgram studyProgram;
+    StarPlanGroup group;
+    StarPlanSemester[] semesters;
+    StarPlanStudyProgram[] studyPrograms;
+    StarPlanGroup[] groups;
+    StarPlanLesson[] lessons;
+
+    public String toString() {
+        return "semester: " + (semester != null ? semester.name : null) + " studyProgram: "
+                + (studyProgram != null ? studyProgram.name : null) + " group: "
+                + (group != null ? group.name : null) + " lessons: " + (lessons != null ? lessons.length : 0);
+    }
+}
+
 /**
  * Helper class with some useful methods for the StarPlan API
  * @author Hannes Rüger
@@ -556,35 +1536,39 @@ class StarPlanHelpers {
      * @return sorted StarPlanLesson array
      */
     static StarPlanLesson[] sortEvents(StarPlanLesson[] events) {
-        for (int i = 0; i < events.length; i++) {
-            for (int j = i + 1; j < events.length; j++) {
-                if (events[i].start.after(events[j].start)) {
-                    StarPlanLesson temp = events[i];
-                    events[i] = events[j];
-                    events[j] = temp;
-                }
-            }
-        }
+        Arrays.sort(events, Comparator.comparing(event -> event.start));
         return events;
     }
 
     /**
      * Get the first event of an array of events
+     * Use a LessonIndex if you need this more than once for the same events.
      * @param events
      * @return first StarPlanLesson
      */
     static StarPlanLesson getFirstEvent(StarPlanLesson[] events) {
-        StarPlanLesson[] sortedEvents = sortEvents(events);
-        return sortedEvents[0];
+        StarPlanLesson first = events[0];
+        for (StarPlanLesson event : events) {
+            if (event.start.before(first.start)) {
+                first = event;
+            }
+        }
+        return first;
     }
 
     /**
      * Get the last event of an array of events
+     * Use a LessonIndex if you need this more than once for the same events.
      * @param events
      * @return last StarPlanLesson
      */
     static StarPlanLesson getLastEvent(StarPlanLesson[] events) {
-        StarPlanLesson[] sortedEvents = sortEvents(events);
-        return sortedEvents[sortedEvents.length - 1];
+        StarPlanLesson last = events[events.length - 1];
+        for (StarPlanLesson event : events) {
+            if (!event.start.before(last.start)) {
+                last = event;
+            }
+        }
+        return last;
     }
-}
\ No newline at end of file
+}
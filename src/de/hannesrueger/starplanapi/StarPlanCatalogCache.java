@@ -0,0 +1,179 @@
+package de.hannesrueger.starplanapi;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * In-memory cache for the catalog lookups getSemesters, getStudyPrograms and
+ * getGroups. Every endpoint has its own time to live. Concurrent calls for
+ * the same url share one in-flight request instead of each sending their own.
+ * The number of entries is bounded, the least recently used ones are evicted.
+ * @author Hannes Rüger
+ */
+class StarPlanCatalogCache {
+    /**
+     * Cached endpoints, each with its own time to live
+     */
+    enum Endpoint {
+        SEMESTERS, STUDY_PROGRAMS, GROUPS
+    }
+
+    private static class Entry {
+        final CompletableFuture<?> value;
+        volatile long expiresAt;
+        /**
+         * false while the request is in flight
+         */
+        volatile boolean loaded;
+
+        Entry(CompletableFuture<?> value) {
+            this.value = value;
+        }
+    }
+
+    private final long[] ttlNanos = new long[Endpoint.values().length];
+    private final Map<String, Entry> entries;
+
+    /**
+     * @param maxEntries maximum number of cached responses
+     * @param ttl time to live of all endpoints
+     */
+    StarPlanCatalogCache(int maxEntries, Duration ttl) {
+        this(maxEntries, ttl, ttl, ttl);
+    }
+
+    /**
+     * @param maxEntries maximum number of cached responses
+     * @param semestersTtl time to live of getSemesters
+     * @param studyProgramsTtl time to live of getStudyPrograms
+     * @param groupsTtl time to live of getGroups
+     */
+    StarPlanCatalogCache(int maxEntries, Duration semestersTtl, Duration studyProgramsTtl, Duration groupsTtl) {
+        ttlNanos[Endpoint.SEMESTERS.ordinal()] = semestersTtl.toNanos();
+        ttlNanos[Endpoint.STUDY_PROGRAMS.ordinal()] = studyProgramsTtl.toNanos();
+        ttlNanos[Endpoint.GROUPS.ordinal()] = groupsTtl.toNanos();
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached value or loads it on the calling thread. Concurrent
+     * callers with the same url wait for that single load.
+     * @param endpoint
+     * @param url
+     * @param loader loads the value if it is not cached
+     * @return cached or loaded value
+     */
+    @SuppressWarnings("unchecked")
+    <T> T get(Endpoint endpoint, String url, Callable<T> loader) throws Exception {
+        CompletableFuture<T> own = new CompletableFuture<T>();
+        Entry entry = claim(url, own);
+        if (entry.value != own) {
+            try {
+                return ((CompletableFuture<T>) entry.value).get();
+            } catch (ExecutionException e) {
+                throw unwrap(e);
+            }
+        }
+        try {
+            T value = loader.call();
+            loaded(endpoint, entry);
+            own.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // also on errors, otherwise waiting callers would block forever
+            failed(url, entry);
+            own.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Non-blocking variant of get
+     * @param endpoint
+     * @param url
+     * @param loader starts loading the value if it is not cached
+     * @return future with the cached or loaded value
+     */
+    @SuppressWarnings("unchecked")
+    <T> CompletableFuture<T> getAsync(Endpoint endpoint, String url, Supplier<CompletableFuture<T>> loader) {
+        CompletableFuture<T> own = new CompletableFuture<T>();
+        Entry entry = claim(url, own);
+        if (entry.value != own) {
+            return (CompletableFuture<T>) entry.value;
+        }
+        CompletableFuture<T> load;
+        try {
+            load = loader.get();
+        } catch (Throwable e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((value, error) -> {
+            if (error != null) {
+                failed(url, entry);
+                own.completeExceptionally(error);
+            } else {
+                loaded(endpoint, entry);
+                own.complete(value);
+            }
+        });
+        return own;
+    }
+
+    /**
+     * Removes all cached values, in-flight requests are not affected
+     */
+    synchronized void invalidateAll() {
+        entries.values().removeIf(entry -> entry.value.isDone());
+    }
+
+    /**
+     * @return number of cached and in-flight entries
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the valid entry of the url, or a new entry for future
+     */
+    private synchronized Entry claim(String url, CompletableFuture<?> future) {
+        Entry entry = entries.get(url);
+        if (entry == null || (entry.loaded && System.nanoTime() - entry.expiresAt > 0)) {
+            entry = new Entry(future);
+            entries.put(url, entry);
+        }
+        return entry;
+    }
+
+    private void loaded(Endpoint endpoint, Entry entry) {
+        entry.expiresAt = System.nanoTime() + ttlNanos[endpoint.ordinal()];
+        entry.loaded = true;
+    }
+
+    private synchronized void failed(String url, Entry entry) {
+        // failures are not cached, the next call tries again
+        entries.remove(url, entry);
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return e;
+    }
+}
@@ -0,0 +1,299 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Crawls semesters, study programs, groups and their timetables concurrently.
+ * Every node of the tree is fetched as soon as its parent is known, so the
+ * whole institution is loaded with at most maxConcurrency parallel requests.
+ * Failed nodes are retried on their own, the rest of the crawl keeps going.
+ * @author Hannes Rüger
+ */
+class StarPlanCrawler implements AutoCloseable {
+    static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_RETRY_DELAY_MILLIS = 500;
+
+    /**
+     * Receives crawl results as they arrive. Methods are called from the
+     * crawler threads, possibly concurrently.
+     */
+    interface Listener {
+        default void onStudyPrograms(StarPlanSemester semester, StarPlanStudyProgram[] studyPrograms) {
+        }
+
+        default void onGroups(StarPlanSemester semester, StarPlanStudyProgram studyProgram,
+                StarPlanGroup[] groups) {
+        }
+
+        default void onLessons(StarPlanSemester semester, StarPlanStudyProgram studyProgram,
+                StarPlanGroup group, StarPlanLesson[] lessons) {
+        }
+
+        /**
+         * Called once a node failed maxAttempts times
+         * @param node description of the node, e.g. the group
+         * @param error cause of the last attempt
+         */
+        default void onFailure(String node, Throwable error) {
+        }
+    }
+
+    private final StarPlan starPlan;
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final Semaphore permits;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+
+    /**
+     * Creates a crawler with its own thread pool
+     * @param starPlan client used for all requests
+     * @param maxConcurrency maximum number of parallel requests
+     */
+    StarPlanCrawler(StarPlan starPlan, int maxConcurrency) {
+        this(starPlan, null, maxConcurrency, DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * @param starPlan client used for all requests, they are sent with BACKGROUND priority
+     * @param executor runs the requests, e.g. a virtual thread executor;
+     *            null to create a pool with maxConcurrency threads
+     * @param maxConcurrency maximum number of parallel requests
+     * @param maxAttempts attempts per node before it is reported as failed
+     * @param retryDelayMillis delay before the first retry, doubled for every further one
+     */
+    StarPlanCrawler(StarPlan starPlan, Executor executor, int maxConcurrency, int maxAttempts,
+            long retryDelayMillis) {
+        this.starPlan = starPlan.withPriority(StarPlanScheduler.Priority.BACKGROUND);
+        if (executor == null) {
+            ownExecutor = Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+                Thread thread = new Thread(runnable, "starplan-crawler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.executor = ownExecutor;
+        } else {
+            ownExecutor = null;
+            this.executor = executor;
+        }
+        this.permits = new Semaphore(maxConcurrency);
+        this.maxAttempts = maxAttempts;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Crawls all semesters
+     * @param listener receives partial results, may be null
+     * @return future completed when every node has been loaded or has failed
+     */
+    CompletableFuture<List<CrawledSemester>> crawl(Listener listener) {
+        Listener l = listener != null ? listener : new Listener() {
+        };
+        return fetch(StarPlanEndpoint.GETPUS, () -> starPlan.getSemestersAsync().get())
+                .thenCompose(semesters -> {
+                    List<CompletableFuture<CrawledSemester>> futures = new ArrayList<CompletableFuture<CrawledSemester>>();
+                    for (StarPlanSemester semester : semesters) {
+                        futures.add(crawl(semester, l));
+                    }
+                    return allOf(futures);
+                });
+    }
+
+    /**
+     * Crawls all study programs, groups and timetables of one semester
+     * @param semester
+     * @param listener receives partial results, may be null
+     * @return future completed when every node has been loaded or has failed
+     */
+    CompletableFuture<CrawledSemester> crawl(StarPlanSemester semester, Listener listener) {
+        Listener l = listener != null ? listener : new Listener() {
+        };
+        String node = "study programs of " + semester.shortname;
+        return fetch(StarPlanEndpoint.GETOGS, () -> starPlan.getStudyProgramsAsync(semester).get())
+                .handle((studyPrograms, error) -> {
+                    if (error != null) {
+                        l.onFailure(node, unwrap(error));
+                        studyPrograms = new StarPlanStudyProgram[0];
+                    } else {
+                        l.onStudyPrograms(semester, studyPrograms);
+                    }
+                    List<CompletableFuture<CrawledStudyProgram>> futures = new ArrayList<CompletableFuture<CrawledStudyProgram>>();
+                    for (StarPlanStudyProgram studyProgram : studyPrograms) {
+                        futures.add(crawl(semester, studyProgram, l));
+                    }
+                    return allOf(futures);
+                })
+                .thenCompose(future -> future)
+                .thenApply(studyPrograms -> new CrawledSemester(semester, studyPrograms));
+    }
+
+    private CompletableFuture<CrawledStudyProgram> crawl(StarPlanSemester semester,
+            StarPlanStudyProgram studyProgram, Listener l) {
+        String node = "groups of " + semester.shortname + "/" + studyProgram.shortname;
+        return fetch(StarPlanEndpoint.GETPGSEXT, () -> starPlan.getGroupsAsync(semester, studyProgram).get())
+                .handle((groups, error) -> {
+                    if (error != null) {
+                        l.onFailure(node, unwrap(error));
+                        groups = new StarPlanGroup[0];
+                    } else {
+                        l.onGroups(semester, studyProgram, groups);
+                    }
+                    List<CompletableFuture<CrawledGroup>> futures = new ArrayList<CompletableFuture<CrawledGroup>>();
+                    for (StarPlanGroup group : groups) {
+                        futures.add(crawl(semester, studyProgram, group, l));
+                    }
+                    return allOf(futures);
+                })
+                .thenCompose(future -> future)
+                .thenApply(groups -> new CrawledStudyProgram(studyProgram, groups));
+    }
+
+    private CompletableFuture<CrawledGroup> crawl(StarPlanSemester semester, StarPlanStudyProgram studyProgram,
+            StarPlanGroup group, Listener l) {
+        String node = "timetable of " + semester.shortname + "/" + studyProgram.shortname + "/" + group.shortname;
+        return fetch(StarPlanEndpoint.ICAL, () -> starPlan.getTimeTableIcalAsync(semester, group).get())
+                .handle((lessons, error) -> {
+                    if (error != null) {
+                        l.onFailure(node, unwrap(error));
+                        return new CrawledGroup(group, null);
+                    }
+                    l.onLessons(semester, studyProgram, group, lessons);
+                    return new CrawledGroup(group, lessons);
+                });
+    }
+
+    /**
+     * Runs the call on the executor once a permit is available and retries it
+     * with exponential backoff. Retries are reported to the metrics listener
+     * of the StarPlan instance.
+     */
+    private <T> CompletableFuture<T> fetch(StarPlanEndpoint endpoint, Callable<T> call) {
+        CompletableFuture<T> result = new CompletableFuture<T>();
+        attempt(endpoint, call, 1, result);
+        return result;
+    }
+
+    private <T> void attempt(StarPlanEndpoint endpoint, Callable<T> call, int attempt, CompletableFuture<T> result) {
+        try {
+            executor.execute(() -> {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result.completeExceptionally(e);
+                    return;
+                }
+                try {
+                    result.complete(call.call());
+                } catch (Exception e) {
+                    if (attempt < maxAttempts) {
+                        long delay = retryDelayMillis << (attempt - 1);
+                        starPlan.getMetricsListener().onRetry(endpoint);
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                                .execute(() -> attempt(endpoint, call, attempt + 1, result));
+                    } else {
+                        result.completeExceptionally(unwrap(e));
+                    }
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the executor was shut down, e.g. by close while a retry was pending
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<T> results = new ArrayList<T>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Shuts down the thread pool created by this crawler
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
+    }
+}
+
+/**
+ * Crawl result of a semester
+ * @author Hannes Rüger
+ */
+class CrawledSemester {
+    StarPlanSemester semester;
+    List<CrawledStudyProgram> studyPrograms;
+
+    public CrawledSemester(StarPlanSemester semester, List<CrawledStudyProgram> studyPrograms) {
+        this.semester = semester;
+        this.studyPrograms = studyPrograms;
+    }
+
+    public String toString() {
+        return semester + " studyPrograms: " + studyPrograms.size();
+    }
+}
+
+/**
+ * Crawl result of a study program
+ * @author Hannes Rüger
+ */
+class CrawledStudyProgram {
+    StarPlanStudyProgram studyProgram;
+    List<CrawledGroup> groups;
+
+    public CrawledStudyProgram(StarPlanStudyProgram studyProgram, List<CrawledGroup> groups) {
+        this.studyProgram = studyProgram;
+        this.groups = groups;
+    }
+
+    public String toString() {
+        return studyProgram + " groups: " + groups.size();
+    }
+}
+
+/**
+ * Crawl result of a group, lessons is null if the timetable could not be loaded
+ * @author Hannes Rüger
+ */
+class CrawledGroup {
+    StarPlanGroup group;
+    StarPlanLesson[] lessons;
+
+    public CrawledGroup(StarPlanGroup group, StarPlanLesson[] lessons) {
+        this.group = group;
+        this.lessons = lessons;
+    }
+
+    public String toString() {
+        return group + " lessons: " + (lessons == null ? "failed" : String.valueOf(lessons.length));
+    }
+}
@@ -0,0 +1,34 @@
+package de.hannesrueger.starplanapi;
+
+/**
+ * Endpoints of the StarPlan website, used to group metrics and errors
+ * @author Hannes Rüger
+ */
+enum StarPlanEndpoint {
+    LOGIN("m=login"),
+    GETPUS("m=getpus"),
+    GETOGS("m=getogs"),
+    GETPGSEXT("m=getPgsExt"),
+    GETTT("m=getTT"),
+    ICAL("/ical"),
+    OTHER(null);
+
+    private final String marker;
+
+    StarPlanEndpoint(String marker) {
+        this.marker = marker;
+    }
+
+    /**
+     * @param url
+     * @return the endpoint the url belongs to, OTHER if it is unknown
+     */
+    static StarPlanEndpoint of(String url) {
+        for (StarPlanEndpoint endpoint : values()) {
+            if (endpoint.marker != null && url.contains(endpoint.marker)) {
+                return endpoint;
+            }
+        }
+        return OTHER;
+    }
+}
@@ -0,0 +1,40 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of one StarPlan endpoint. Latencies are in
+ * microseconds. JMX requires this interface to be public.
+ * @author Hannes Rüger
+ */
+public interface StarPlanEndpointMetricsMXBean {
+    long getRequests();
+
+    long getBytes();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    double getCacheHitRate();
+
+    long getRetries();
+
+    long getErrors();
+
+    Map<String, Long> getErrorsByCategory();
+
+    long getNetworkP50Micros();
+
+    long getNetworkP99Micros();
+
+    long getNetworkMaxMicros();
+
+    long getParseP50Micros();
+
+    long getParseP99Micros();
+
+    long getParseMaxMicros();
+
+    void reset();
+}
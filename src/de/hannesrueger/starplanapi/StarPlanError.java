@@ -0,0 +1,115 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Describes why a request to the StarPlan website failed
+ * @author Hannes Rüger
+ */
+class StarPlanError {
+    enum Category {
+        /**
+         * Wrong credentials or missing session, HTTP 401 and 403
+         */
+        UNAUTHORIZED,
+        /**
+         * Any other HTTP status >= 400
+         */
+        HTTP_STATUS,
+        /**
+         * Connect or read timeout
+         */
+        TIMEOUT,
+        /**
+         * Connection failures and other I/O errors
+         */
+        NETWORK,
+        /**
+         * The response could not be parsed
+         */
+        PARSE,
+        /**
+         * The calling thread was interrupted
+         */
+        INTERRUPTED
+    }
+
+    final StarPlanEndpoint endpoint;
+    final Category category;
+    /**
+     * HTTP status, 0 if no response was received
+     */
+    final int status;
+    final String message;
+    /**
+     * Exception which caused the error, may be null
+     */
+    final Throwable cause;
+
+    StarPlanError(StarPlanEndpoint endpoint, Category category, int status, String message, Throwable cause) {
+        this.endpoint = endpoint;
+        this.category = category;
+        this.status = status;
+        this.message = message;
+        this.cause = cause;
+    }
+
+    /**
+     * Classifies an exception thrown while loading an endpoint
+     * @param endpoint
+     * @param error
+     * @return StarPlanError describing the exception
+     */
+    static StarPlanError of(StarPlanEndpoint endpoint, Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof UncheckedIOException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        Category category;
+        int status = 0;
+        if (error instanceof StarPlanHttpException) {
+            status = ((StarPlanHttpException) error).status;
+            category = status == 401 || status == 403 ? Category.UNAUTHORIZED : Category.HTTP_STATUS;
+        } else if (error instanceof HttpTimeoutException || error instanceof SocketTimeoutException) {
+            category = Category.TIMEOUT;
+        } else if (error instanceof InterruptedException) {
+            category = Category.INTERRUPTED;
+        } else if (error instanceof IOException) {
+            category = Category.NETWORK;
+        } else {
+            // the transport only throws IOExceptions, everything else comes from the parsers
+            category = Category.PARSE;
+        }
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        return new StarPlanError(endpoint, category, status, message, error);
+    }
+
+    @Override
+    public String toString() {
+        return "StarPlanError [endpoint=" + endpoint + ", category=" + category + ", status=" + status
+                + ", message=" + message + "]";
+    }
+}
+
+/**
+ * Thrown if the StarPlan website answers with an HTTP status >= 400
+ * @author Hannes Rüger
+ */
+class StarPlanHttpException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final int status;
+
+    StarPlanHttpException(int status, String url) {
+        super("Server returned HTTP response code: " + status + " for URL: " + url);
+        this.status = status;
+    }
+}
@@ -0,0 +1,186 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Default transport based on java.net.http.HttpClient.
+ * Connections are kept alive and shared between all requests, HTTP/2 is
+ * used if the server supports it and responses are requested gzip compressed.
+ * Asynchronous responses are handed over on a thread of their own, so the
+ * blocking reads of decompression and parsing never run on the threads of
+ * the HttpClient. A body which is not read completely within the read
+ * timeout is closed and fails with an HttpTimeoutException.
+ * @author Hannes Rüger
+ */
+class StarPlanHttpClientTransport implements StarPlanTransport {
+    static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    /**
+     * Reads and parses the bodies of asynchronous responses
+     */
+    private static final ExecutorService RESPONSES = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "starplan-response-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Closes bodies which are not read completely before their deadline
+     */
+    private static final ScheduledThreadPoolExecutor DEADLINES = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "starplan-deadlines");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        DEADLINES.setRemoveOnCancelPolicy(true);
+    }
+
+    private final HttpClient client;
+    private final Duration readTimeout;
+
+    StarPlanHttpClientTransport() {
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT);
+    }
+
+    /**
+     * @param connectTimeout timeout for establishing a connection
+     * @param readTimeout timeout until the response headers have been received
+     *            and again until the body has been read
+     */
+    StarPlanHttpClientTransport(Duration connectTimeout, Duration readTimeout) {
+        this(HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(connectTimeout)
+                .build(), readTimeout);
+    }
+
+    /**
+     * @param client preconfigured client, e.g. with a custom executor or proxy
+     * @param readTimeout timeout until the response headers have been received
+     *            and again until the body has been read
+     */
+    StarPlanHttpClientTransport(HttpClient client, Duration readTimeout) {
+        this.client = client;
+        this.readTimeout = readTimeout;
+    }
+
+    @Override
+    public StarPlanResponse send(StarPlanRequest request) throws IOException, InterruptedException {
+        return toResponse(client.send(toHttpRequest(request), HttpResponse.BodyHandlers.ofInputStream()));
+    }
+
+    @Override
+    public CompletableFuture<StarPlanResponse> sendAsync(StarPlanRequest request) {
+        HttpRequest httpRequest;
+        try {
+            httpRequest = toHttpRequest(request);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream())
+                // the gzip header is read when the stream is wrapped and the caller parses on the same thread
+                .thenApplyAsync(response -> {
+                    try {
+                        return toResponse(response);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, RESPONSES);
+    }
+
+    private HttpRequest toHttpRequest(StarPlanRequest request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(request.url))
+                .timeout(readTimeout)
+                .header("Accept-Encoding", "gzip");
+        for (Map.Entry<String, String> header : request.headers.entrySet()) {
+            builder.header(header.getKey(), header.getValue());
+        }
+        if (request.body != null) {
+            builder.method(request.method, HttpRequest.BodyPublishers.ofString(request.body));
+        } else {
+            builder.method(request.method, HttpRequest.BodyPublishers.noBody());
+        }
+        return builder.build();
+    }
+
+    private StarPlanResponse toResponse(HttpResponse<InputStream> response) throws IOException {
+        InputStream body = new DeadlineInputStream(response.body(), readTimeout);
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if (encoding.equalsIgnoreCase("gzip") && response.statusCode() != 204 && response.statusCode() != 304) {
+            body = new GZIPInputStream(body, 8192);
+        }
+        return new StarPlanResponse(response.statusCode(), response.headers().map(), body);
+    }
+
+    /**
+     * Closes the body once the deadline has passed, a blocked read fails then
+     */
+    private static class DeadlineInputStream extends FilterInputStream {
+        private final ScheduledFuture<?> deadline;
+        private volatile boolean expired;
+
+        DeadlineInputStream(InputStream in, Duration timeout) {
+            super(in);
+            deadline = DEADLINES.schedule(this::expire, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+
+        private void expire() {
+            expired = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                // the next read fails anyway
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return in.read(b, off, len);
+            } catch (IOException e) {
+                throw expired ? timeout() : e;
+            }
+        }
+
+        private static HttpTimeoutException timeout() {
+            return new HttpTimeoutException("Reading the response body timed out");
+        }
+
+        @Override
+        public void close() throws IOException {
+            deadline.cancel(false);
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package de.hannesrueger.starplanapi;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Default in-memory StarPlanMetricsListener. Keeps latency histograms of the
+ * network and parse time and counters for bytes, cache lookups, retries and
+ * errors per endpoint. The metrics can be read directly or over JMX after
+ * calling register.
+ * @author Hannes Rüger
+ */
+class StarPlanMetrics implements StarPlanMetricsListener {
+    private final Map<StarPlanEndpoint, StarPlanEndpointMetrics> endpoints = new EnumMap<StarPlanEndpoint, StarPlanEndpointMetrics>(
+            StarPlanEndpoint.class);
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+
+    StarPlanMetrics() {
+        for (StarPlanEndpoint endpoint : StarPlanEndpoint.values()) {
+            endpoints.put(endpoint, new StarPlanEndpointMetrics());
+        }
+    }
+
+    /**
+     * @param endpoint
+     * @return the metrics of the endpoint
+     */
+    StarPlanEndpointMetrics endpoint(StarPlanEndpoint endpoint) {
+        return endpoints.get(endpoint);
+    }
+
+    @Override
+    public void onRequest(StarPlanEndpoint endpoint, long networkNanos, long parseNanos, long bytes) {
+        StarPlanEndpointMetrics metrics = endpoints.get(endpoint);
+        metrics.network.record(networkNanos);
+        metrics.parse.record(parseNanos);
+        metrics.bytes.add(bytes);
+    }
+
+    @Override
+    public void onCacheLookup(StarPlanEndpoint endpoint, boolean hit) {
+        StarPlanEndpointMetrics metrics = endpoints.get(endpoint);
+        (hit ? metrics.cacheHits : metrics.cacheMisses).increment();
+    }
+
+    @Override
+    public void onRetry(StarPlanEndpoint endpoint) {
+        endpoints.get(endpoint).retries.increment();
+    }
+
+    @Override
+    public void onError(StarPlanError error) {
+        endpoints.get(error.endpoint).errors.get(error.category).increment();
+    }
+
+    /**
+     * Registers one MXBean per endpoint at the platform MBean server, named
+     * de.hannesrueger.starplanapi:type=StarPlanMetrics,name=...,endpoint=...
+     * @param name distinguishes several StarPlan instances
+     */
+    synchronized void register(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (Map.Entry<StarPlanEndpoint, StarPlanEndpointMetrics> endpoint : endpoints.entrySet()) {
+            ObjectName objectName = new ObjectName("de.hannesrueger.starplanapi:type=StarPlanMetrics,name="
+                    + ObjectName.quote(name) + ",endpoint=" + endpoint.getKey());
+            server.registerMBean(endpoint.getValue(), objectName);
+            registered.add(objectName);
+        }
+    }
+
+    /**
+     * Removes the MXBeans added by register
+     */
+    synchronized void unregister() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : registered) {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        }
+        registered.clear();
+    }
+
+    /**
+     * Resets the metrics of all endpoints
+     */
+    void reset() {
+        for (StarPlanEndpointMetrics metrics : endpoints.values()) {
+            metrics.reset();
+        }
+    }
+}
+
+/**
+ * Metrics of one endpoint
+ * @author Hannes Rüger
+ */
+class StarPlanEndpointMetrics implements StarPlanEndpointMetricsMXBean {
+    final LatencyHistogram network = new LatencyHistogram();
+    final LatencyHistogram parse = new LatencyHistogram();
+    final LongAdder bytes = new LongAdder();
+    final LongAdder cacheHits = new LongAdder();
+    final LongAdder cacheMisses = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final Map<StarPlanError.Category, LongAdder> errors = new EnumMap<StarPlanError.Category, LongAdder>(
+            StarPlanError.Category.class);
+
+    StarPlanEndpointMetrics() {
+        for (StarPlanError.Category category : StarPlanError.Category.values()) {
+            errors.put(category, new LongAdder());
+        }
+    }
+
+    @Override
+    public long getRequests() {
+        return network.count();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        long sum = 0;
+        for (LongAdder count : errors.values()) {
+            sum += count.sum();
+        }
+        return sum;
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByCategory() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<StarPlanError.Category, LongAdder> count : errors.entrySet()) {
+            result.put(count.getKey().name(), count.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public long getNetworkP50Micros() {
+        return network.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getNetworkP99Micros() {
+        return network.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getNetworkMaxMicros() {
+        return network.max() / 1000;
+    }
+
+    @Override
+    public long getParseP50Micros() {
+        return parse.percentile(50) / 1000;
+    }
+
+    @Override
+    public long getParseP99Micros() {
+        return parse.percentile(99) / 1000;
+    }
+
+    @Override
+    public long getParseMaxMicros() {
+        return parse.max() / 1000;
+    }
+
+    @Override
+    public void reset() {
+        network.reset();
+        parse.reset();
+        bytes.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        retries.reset();
+        for (LongAdder count : errors.values()) {
+            count.reset();
+        }
+    }
+}
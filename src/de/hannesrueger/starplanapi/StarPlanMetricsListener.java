@@ -0,0 +1,47 @@
+package de.hannesrueger.starplanapi;
+
+/**
+ * Instrumentation SPI of StarPlan. All methods are called on the thread which
+ * handled the request, so implementations have to be thread safe and fast.
+ * StarPlanMetrics is the default implementation.
+ * @author Hannes Rüger
+ */
+interface StarPlanMetricsListener {
+    /**
+     * Listener which ignores all events
+     */
+    StarPlanMetricsListener NONE = new StarPlanMetricsListener() {
+    };
+
+    /**
+     * Called after a response has been received and parsed
+     * @param endpoint
+     * @param networkNanos time until the headers arrived plus the time spent reading the body
+     * @param parseNanos remaining time spent parsing the body
+     * @param bytes size of the body after decompression
+     */
+    default void onRequest(StarPlanEndpoint endpoint, long networkNanos, long parseNanos, long bytes) {
+    }
+
+    /**
+     * Called once per lookup if a response or catalog cache is set
+     * @param endpoint
+     * @param hit true if the result did not have to be downloaded or parsed again
+     */
+    default void onCacheLookup(StarPlanEndpoint endpoint, boolean hit) {
+    }
+
+    /**
+     * Called before a failed request is sent again
+     * @param endpoint
+     */
+    default void onRetry(StarPlanEndpoint endpoint) {
+    }
+
+    /**
+     * Called if a request failed
+     * @param error
+     */
+    default void onError(StarPlanError error) {
+    }
+}
@@ -0,0 +1,42 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single request to the StarPlan website
+ * @author Hannes Rüger
+ */
+class StarPlanRequest {
+    final String method;
+    final String url;
+    final String body;
+    final Map<String, String> headers = new LinkedHashMap<String, String>();
+
+    private StarPlanRequest(String method, String url, String body) {
+        this.method = method;
+        this.url = url;
+        this.body = body;
+    }
+
+    static StarPlanRequest get(String url) {
+        return new StarPlanRequest("GET", url, null);
+    }
+
+    static StarPlanRequest post(String url, String body) {
+        return new StarPlanRequest("POST", url, body);
+    }
+
+    /**
+     * Adds a request header
+     * @return this request
+     */
+    StarPlanRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public String toString() {
+        return method + " " + url;
+    }
+}
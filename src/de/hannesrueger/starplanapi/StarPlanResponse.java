@@ -0,0 +1,76 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response of the StarPlan website. The body is already decompressed.
+ * @author Hannes Rüger
+ */
+class StarPlanResponse implements Closeable {
+    final int status;
+    final Map<String, List<String>> headers;
+    private final InputStream body;
+
+    StarPlanResponse(int status, Map<String, List<String>> headers, InputStream body) {
+        this.status = status;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Get all values of a header, the name is case insensitive
+     * @param name
+     * @return list of values, empty if the header is missing
+     */
+    List<String> headers(String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() != null && header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @param name
+     * @return first value of the header or null
+     */
+    String header(String name) {
+        List<String> values = headers(name);
+        return values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * @return the body stream, has to be closed by the caller
+     */
+    InputStream body() {
+        return body;
+    }
+
+    /**
+     * Reads the whole body and closes the stream
+     */
+    byte[] bytes() throws IOException {
+        try (InputStream in = body) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * Reads the whole body as UTF-8 and closes the stream
+     */
+    String string() throws IOException {
+        return new String(bytes(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        body.close();
+    }
+}
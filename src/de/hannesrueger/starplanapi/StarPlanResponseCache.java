@@ -0,0 +1,276 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Disk backed HTTP cache for the ical and json endpoints.
+ * Bodies are stored together with their ETag/Last-Modified validators and a
+ * SHA-256 content hash, so unchanged responses can be detected even if the
+ * server does not support conditional requests. The parsed result of a body
+ * is kept in memory, so a 304 or an unchanged body does not have to be parsed
+ * again. The least recently used entries are evicted once maxBytes is exceeded.
+ * The cache survives restarts, the parsed results do not.
+ * @author Hannes Rüger
+ */
+class StarPlanResponseCache {
+    private static final String BODY_SUFFIX = ".body";
+    private static final String META_SUFFIX = ".meta";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long size;
+
+    /**
+     * A cached response
+     */
+    static class Entry {
+        final String key;
+        final String url;
+        final String hash;
+        final long size;
+        volatile String etag;
+        volatile String lastModified;
+        /**
+         * Parsed body, only kept in memory
+         */
+        volatile Object parsed;
+
+        Entry(String key, String url, String hash, long size, String etag, String lastModified) {
+            this.key = key;
+            this.url = url;
+            this.hash = hash;
+            this.size = size;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    /**
+     * Opens the cache and loads the index of all entries in the directory
+     * @param directory created if it does not exist
+     * @param maxBytes maximum size of all cached bodies
+     */
+    StarPlanResponseCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+        load();
+    }
+
+    /**
+     * @param url
+     * @return the cached entry or null
+     */
+    synchronized Entry get(String url) {
+        return entries.get(key(url));
+    }
+
+    /**
+     * Stores a downloaded body. If the body did not change, the existing entry
+     * including its parsed value is kept and only the validators are updated.
+     * @param url
+     * @param etag ETag header of the response, may be null
+     * @param lastModified Last-Modified header of the response, may be null
+     * @param body
+     * @return entry of the body
+     */
+    synchronized Entry put(String url, String etag, String lastModified, byte[] body) throws IOException {
+        String key = key(url);
+        String hash = hash(body);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.hash.equals(hash)) {
+            revalidated(entry, etag, lastModified);
+            return entry;
+        }
+        if (entry != null) {
+            size -= entry.size;
+        }
+        entry = new Entry(key, url, hash, body.length, etag, lastModified);
+        write(directory.resolve(key + BODY_SUFFIX), body);
+        writeMeta(entry);
+        entries.put(key, entry);
+        size += entry.size;
+        evict();
+        return entry;
+    }
+
+    /**
+     * Updates the validators of an entry after a 304 or an unchanged body
+     * @param entry
+     * @param etag new ETag, null to keep the old one
+     * @param lastModified new Last-Modified, null to keep the old one
+     */
+    synchronized void revalidated(Entry entry, String etag, String lastModified) throws IOException {
+        boolean changed = false;
+        if (etag != null && !etag.equals(entry.etag)) {
+            entry.etag = etag;
+            changed = true;
+        }
+        if (lastModified != null && !lastModified.equals(entry.lastModified)) {
+            entry.lastModified = lastModified;
+            changed = true;
+        }
+        if (entries.get(entry.key) != entry) {
+            // evicted or replaced while the request was sent
+            return;
+        }
+        Path meta = directory.resolve(entry.key + META_SUFFIX);
+        if (changed) {
+            writeMeta(entry);
+        } else if (Files.exists(meta)) {
+            // the modification time of the meta file is the LRU order after a restart
+            Files.setLastModifiedTime(meta, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * Reads the cached body of an entry, under the lock so it is not evicted meanwhile
+     * @return the body, null if the entry has been evicted or its file is missing
+     */
+    synchronized byte[] body(Entry entry) throws IOException {
+        if (entries.get(entry.key) != entry) {
+            return null;
+        }
+        try {
+            return Files.readAllBytes(directory.resolve(entry.key + BODY_SUFFIX));
+        } catch (NoSuchFileException e) {
+            // deleted behind our back, the entry is useless
+            entries.remove(entry.key);
+            size -= entry.size;
+            Files.deleteIfExists(directory.resolve(entry.key + META_SUFFIX));
+            return null;
+        }
+    }
+
+    /**
+     * @return size of all cached bodies in bytes
+     */
+    synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Removes all entries
+     */
+    synchronized void clear() throws IOException {
+        for (Entry entry : entries.values()) {
+            delete(entry);
+        }
+        entries.clear();
+        size = 0;
+    }
+
+    private void evict() throws IOException {
+        Iterator<Entry> it = entries.values().iterator();
+        while (size > maxBytes && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            size -= eldest.size;
+            delete(eldest);
+        }
+    }
+
+    private void delete(Entry entry) throws IOException {
+        Files.deleteIfExists(directory.resolve(entry.key + META_SUFFIX));
+        Files.deleteIfExists(directory.resolve(entry.key + BODY_SUFFIX));
+    }
+
+    private void load() throws IOException {
+        List<Path> metas = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + META_SUFFIX)) {
+            for (Path meta : stream) {
+                metas.add(meta);
+            }
+        }
+        // oldest first, so the access order of the map matches the files
+        metas.sort((a, b) -> {
+            try {
+                return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+            } catch (IOException e) {
+                return 0;
+            }
+        });
+        for (Path meta : metas) {
+            Properties properties = new Properties();
+            try (InputStream in = Files.newInputStream(meta)) {
+                properties.load(in);
+            } catch (IOException e) {
+                continue;
+            }
+            String fileName = meta.getFileName().toString();
+            String key = fileName.substring(0, fileName.length() - META_SUFFIX.length());
+            Path body = directory.resolve(key + BODY_SUFFIX);
+            if (!Files.exists(body) || properties.getProperty("hash") == null) {
+                Files.deleteIfExists(meta);
+                continue;
+            }
+            Entry entry = new Entry(key, properties.getProperty("url"), properties.getProperty("hash"),
+                    Files.size(body), properties.getProperty("etag"), properties.getProperty("lastModified"));
+            entries.put(key, entry);
+            size += entry.size;
+        }
+        evict();
+    }
+
+    private void writeMeta(Entry entry) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("url", entry.url);
+        properties.setProperty("hash", entry.hash);
+        if (entry.etag != null) {
+            properties.setProperty("etag", entry.etag);
+        }
+        if (entry.lastModified != null) {
+            properties.setProperty("lastModified", entry.lastModified);
+        }
+        Path tmp = Files.createTempFile(directory, entry.key, ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            properties.store(out, null);
+        }
+        Files.move(tmp, directory.resolve(entry.key + META_SUFFIX), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void write(Path file, byte[] data) throws IOException {
+        Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        Files.write(tmp, data);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String key(String url) {
+        return hash(url.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return hex encoded SHA-256 hash of the data
+     */
+    static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is available on every JVM
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package de.hannesrueger.starplanapi;
+
+/**
+ * Result of a StarPlan request, either a value or a StarPlanError
+ * @author Hannes Rüger
+ */
+class StarPlanResult<T> {
+    private final T value;
+    private final StarPlanError error;
+
+    private StarPlanResult(T value, StarPlanError error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    static <T> StarPlanResult<T> ok(T value) {
+        return new StarPlanResult<T>(value, null);
+    }
+
+    static <T> StarPlanResult<T> failed(StarPlanError error) {
+        return new StarPlanResult<T>(null, error);
+    }
+
+    /**
+     * @return true if the request succeeded
+     */
+    boolean isOk() {
+        return error == null;
+    }
+
+    /**
+     * @return the value, null if the request failed
+     */
+    T value() {
+        return value;
+    }
+
+    /**
+     * @return the error, null if the request succeeded
+     */
+    StarPlanError error() {
+        return error;
+    }
+
+    /**
+     * @param other
+     * @return the value, or other if the request failed
+     */
+    T orElse(T other) {
+        return error == null ? value : other;
+    }
+
+    @Override
+    public String toString() {
+        return error == null ? "StarPlanResult [value=" + value + "]" : "StarPlanResult [error=" + error + "]";
+    }
+}
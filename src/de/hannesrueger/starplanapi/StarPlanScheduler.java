@@ -0,0 +1,394 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request scheduler protecting the StarPlan website from too much load.
+ * A token bucket limits the request rate and an AIMD controller adapts the
+ * number of parallel requests: it grows by one per round of fast responses
+ * and is halved on timeouts, overload responses (429, 502, 503, 504) and
+ * responses slower than the latency target. Failed requests are retried with
+ * jittered exponential backoff, a Retry-After header pauses all requests.
+ * Waiting INTERACTIVE requests are always sent before BACKGROUND ones.
+ * A request occupies its slot until the body of its response is closed, the
+ * latency is measured up to that point as well.
+ * Responses which are still failing after the last attempt are passed on, so
+ * StarPlan reports them as errors.
+ * @author Hannes Rüger
+ */
+class StarPlanScheduler {
+    /**
+     * Priority classes, interactive lookups jump ahead of background crawls
+     */
+    enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    static final int DEFAULT_MAX_ATTEMPTS = 4;
+    static final Duration DEFAULT_LATENCY_TARGET = Duration.ofSeconds(2);
+    static final Duration DEFAULT_BASE_DELAY = Duration.ofMillis(250);
+    static final Duration DEFAULT_MAX_DELAY = Duration.ofSeconds(30);
+
+    private static class Task {
+        final StarPlanTransport transport;
+        final StarPlanRequest request;
+        final Priority priority;
+        final StarPlanMetricsListener listener;
+        final CompletableFuture<StarPlanResponse> result = new CompletableFuture<StarPlanResponse>();
+        int attempt;
+
+        Task(StarPlanTransport transport, StarPlanRequest request, Priority priority,
+                StarPlanMetricsListener listener) {
+            this.transport = transport;
+            this.request = request;
+            this.priority = priority;
+            this.listener = listener;
+        }
+    }
+
+    private final double requestsPerSecond;
+    private final int burst;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+    private final long latencyTargetNanos;
+    private final int maxAttempts;
+    private final long baseDelayNanos;
+    private final long maxDelayNanos;
+
+    // guarded by this
+    private final ArrayDeque<Task>[] queues;
+    private double tokens;
+    private long refilledAt = System.nanoTime();
+    private double limit;
+    private int inFlight;
+    private long decreasedAt = System.nanoTime();
+    private long pausedUntil = System.nanoTime();
+    private boolean wakeUpScheduled;
+
+    /**
+     * @param requestsPerSecond sustained request rate, has to be positive
+     * @param maxConcurrency upper bound of the adaptive concurrency limit
+     */
+    StarPlanScheduler(double requestsPerSecond, int maxConcurrency) {
+        this(requestsPerSecond, Math.max((int) Math.ceil(requestsPerSecond), 1), 1, maxConcurrency,
+                DEFAULT_LATENCY_TARGET, DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param requestsPerSecond sustained request rate, has to be positive
+     * @param burst number of requests which may be sent at once after a pause, at least 1
+     * @param minConcurrency lower bound of the adaptive concurrency limit, also the initial limit
+     * @param maxConcurrency upper bound of the adaptive concurrency limit
+     * @param latencyTarget responses slower than this shrink the concurrency limit
+     * @param maxAttempts attempts per request, including the first one
+     * @param baseDelay maximum delay before the first retry, doubled for every further one
+     * @param maxDelay maximum delay between two attempts without a Retry-After header
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    StarPlanScheduler(double requestsPerSecond, int burst, int minConcurrency, int maxConcurrency,
+            Duration latencyTarget, int maxAttempts, Duration baseDelay, Duration maxDelay) {
+        if (!(requestsPerSecond > 0)) {
+            throw new IllegalArgumentException("requestsPerSecond has to be positive: " + requestsPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst has to be at least 1: " + burst);
+        }
+        this.requestsPerSecond = requestsPerSecond;
+        this.burst = burst;
+        this.minConcurrency = Math.max(minConcurrency, 1);
+        this.maxConcurrency = Math.max(maxConcurrency, this.minConcurrency);
+        this.latencyTargetNanos = latencyTarget.toNanos();
+        this.maxAttempts = Math.max(maxAttempts, 1);
+        this.baseDelayNanos = baseDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.tokens = burst;
+        this.limit = this.minConcurrency;
+        this.queues = new ArrayDeque[Priority.values().length];
+        for (int i = 0; i < queues.length; i++) {
+            queues[i] = new ArrayDeque<Task>();
+        }
+    }
+
+    /**
+     * Sends the request once the rate and concurrency limits allow it and
+     * waits for the response headers
+     * @param transport
+     * @param request
+     * @param priority
+     * @param listener receives the retries
+     * @return the first successful response or the response of the last attempt,
+     *         has to be closed to free its slot
+     */
+    StarPlanResponse send(StarPlanTransport transport, StarPlanRequest request, Priority priority,
+            StarPlanMetricsListener listener) throws IOException, InterruptedException {
+        CompletableFuture<StarPlanResponse> result = sendAsync(transport, request, priority, listener);
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            // nobody reads the response anymore
+            result.thenAccept(StarPlanScheduler::closeQuietly);
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Non-blocking variant of send
+     * @return future completed as soon as the response headers are available
+     */
+    CompletableFuture<StarPlanResponse> sendAsync(StarPlanTransport transport, StarPlanRequest request,
+            Priority priority, StarPlanMetricsListener listener) {
+        Task task = new Task(transport, request, priority, listener);
+        enqueue(task);
+        return task.result;
+    }
+
+    /**
+     * @return the current adaptive concurrency limit
+     */
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return number of requests waiting to be sent
+     */
+    synchronized int queued() {
+        int queued = 0;
+        for (ArrayDeque<Task> queue : queues) {
+            queued += queue.size();
+        }
+        return queued;
+    }
+
+    private void enqueue(Task task) {
+        synchronized (this) {
+            queues[task.priority.ordinal()].add(task);
+        }
+        dispatch();
+    }
+
+    /**
+     * Starts as many queued tasks as the limits allow
+     */
+    private void dispatch() {
+        while (true) {
+            Task task;
+            synchronized (this) {
+                long now = System.nanoTime();
+                if (inFlight >= (int) limit) {
+                    // a completing request calls dispatch again
+                    return;
+                }
+                task = peek();
+                if (task == null) {
+                    return;
+                }
+                refill(now);
+                long wait = Math.max(pausedUntil - now, 0);
+                if (wait == 0 && tokens < 1) {
+                    wait = (long) Math.ceil((1 - tokens) / requestsPerSecond * 1e9);
+                }
+                if (wait > 0) {
+                    wakeUpIn(wait);
+                    return;
+                }
+                tokens -= 1;
+                inFlight++;
+                queues[task.priority.ordinal()].poll();
+            }
+            start(task);
+        }
+    }
+
+    private void start(Task task) {
+        task.attempt++;
+        long started = System.nanoTime();
+        CompletableFuture<StarPlanResponse> response;
+        try {
+            response = task.transport.sendAsync(task.request);
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+        response.whenComplete((r, error) -> completed(task, r, unwrap(error), started));
+    }
+
+    /**
+     * Called once the response headers are available or the request failed
+     */
+    private void completed(Task task, StarPlanResponse response, Throwable error, long started) {
+        boolean overloaded = error != null ? isTimeout(error) : isOverload(response.status);
+        boolean retry = (error != null ? error instanceof IOException : isOverload(response.status))
+                && task.attempt < maxAttempts && !task.result.isDone();
+        long retryAfter = response != null ? retryAfter(response) : -1;
+        if (retryAfter > 0) {
+            synchronized (this) {
+                pausedUntil = Math.max(pausedUntil, System.nanoTime() + retryAfter);
+            }
+        }
+        if (retry) {
+            if (response != null) {
+                closeQuietly(response);
+            }
+            released(overloaded, error == null, System.nanoTime() - started);
+            task.listener.onRetry(StarPlanEndpoint.of(task.request.url));
+            long delay = retryAfter > 0 ? retryAfter : backoff(task.attempt);
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> enqueue(task));
+        } else if (error != null) {
+            released(overloaded, false, System.nanoTime() - started);
+            task.result.completeExceptionally(error);
+        } else {
+            // the slot is released when the caller closes the body
+            StarPlanResponse tracked = new StarPlanResponse(response.status, response.headers,
+                    new FilterInputStream(response.body()) {
+                        private boolean closed;
+
+                        @Override
+                        public void close() throws IOException {
+                            synchronized (this) {
+                                if (closed) {
+                                    return;
+                                }
+                                closed = true;
+                            }
+                            try {
+                                super.close();
+                            } finally {
+                                released(overloaded, true, System.nanoTime() - started);
+                            }
+                        }
+                    });
+            if (!task.result.complete(tracked)) {
+                closeQuietly(tracked);
+            }
+        }
+    }
+
+    /**
+     * Frees the slot of a request, adapts the limit and starts waiting requests
+     * @param overloaded the server signalled overload or the request timed out
+     * @param succeeded a response was received
+     * @param latency nanoseconds from sending the request until the body was closed
+     */
+    private void released(boolean overloaded, boolean succeeded, long latency) {
+        synchronized (this) {
+            inFlight--;
+            long now = System.nanoTime();
+            if (overloaded || latency > latencyTargetNanos) {
+                // at most one decrease per latency target, a burst of failures is one signal
+                if (now - decreasedAt > latencyTargetNanos) {
+                    limit = Math.max(limit / 2, minConcurrency);
+                    decreasedAt = now;
+                }
+            } else if (succeeded) {
+                // one more request per round of successful requests
+                limit = Math.min(limit + 1 / limit, maxConcurrency);
+            }
+        }
+        dispatch();
+    }
+
+    /**
+     * @return the head of the queue with the highest priority, null if all are empty
+     */
+    private Task peek() {
+        for (ArrayDeque<Task> queue : queues) {
+            if (!queue.isEmpty()) {
+                return queue.peek();
+            }
+        }
+        return null;
+    }
+
+    private void refill(long now) {
+        tokens = Math.min(tokens + (now - refilledAt) / 1e9 * requestsPerSecond, burst);
+        refilledAt = now;
+    }
+
+    private void wakeUpIn(long nanos) {
+        if (!wakeUpScheduled) {
+            wakeUpScheduled = true;
+            CompletableFuture.delayedExecutor(nanos, TimeUnit.NANOSECONDS).execute(() -> {
+                synchronized (this) {
+                    wakeUpScheduled = false;
+                }
+                dispatch();
+            });
+        }
+    }
+
+    /**
+     * Full jitter: a random delay between 0 and the exponential backoff
+     */
+    private long backoff(int attempt) {
+        long cap = Math.min(baseDelayNanos << Math.min(attempt - 1, 30), maxDelayNanos);
+        return ThreadLocalRandom.current().nextLong(Math.max(cap, 1));
+    }
+
+    private static boolean isOverload(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        return error instanceof HttpTimeoutException || error instanceof SocketTimeoutException;
+    }
+
+    /**
+     * @return the Retry-After delay in nanoseconds, -1 if the header is missing or invalid
+     */
+    static long retryAfter(StarPlanResponse response) {
+        String value = response.header("Retry-After");
+        if (value == null) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            // HTTP date
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(Duration.between(ZonedDateTime.now(), date).toNanos(), 0);
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    private static void closeQuietly(StarPlanResponse response) {
+        try {
+            response.close();
+        } catch (IOException e) {
+            // the response is discarded anyway
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package de.hannesrueger.starplanapi;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Logged in sessions of many accounts. Every account has its own StarPlan
+ * sharing the transport, caches and scheduler of a template. Expired and idle
+ * sessions are renewed transparently before the request is repeated. There
+ * is at most one login in flight per account, all callers wait for that one,
+ * and logins of all accounts run on a small pool, so many expiring sessions
+ * do not cause a spike of login requests. A request remembers the login
+ * generation it was sent with, a rejected request only renews the session
+ * of that generation, never one which was logged in meanwhile.
+ * @author Hannes Rüger
+ */
+class StarPlanSessionPool implements AutoCloseable {
+    static final Duration DEFAULT_MAX_IDLE = Duration.ofMinutes(20);
+    static final Duration DEFAULT_MIN_LOGIN_INTERVAL = Duration.ofSeconds(30);
+
+    /**
+     * A login attempt, generation counts the attempts of the account
+     */
+    private static class Login {
+        final int generation;
+        final CompletableFuture<StarPlanResult<Boolean>> result;
+
+        Login(int generation, CompletableFuture<StarPlanResult<Boolean>> result) {
+            this.generation = generation;
+            this.result = result;
+        }
+    }
+
+    private static class Account {
+        final String username;
+        final String password;
+        final StarPlan session;
+        // guarded by this
+        Login login;
+        long loginStarted;
+        volatile long lastUsed;
+
+        Account(String username, String password, StarPlan session) {
+            this.username = username;
+            this.password = password;
+            this.session = session;
+        }
+    }
+
+    private final StarPlan template;
+    private final long maxIdleNanos;
+    private final long minLoginIntervalNanos;
+    private final ExecutorService logins;
+    private final ConcurrentHashMap<String, Account> accounts = new ConcurrentHashMap<String, Account>();
+
+    /**
+     * @param template StarPlan whose transport, caches and scheduler are shared by all sessions
+     * @param maxConcurrentLogins maximum number of logins running at the same time
+     */
+    StarPlanSessionPool(StarPlan template, int maxConcurrentLogins) {
+        this(template, maxConcurrentLogins, DEFAULT_MAX_IDLE, DEFAULT_MIN_LOGIN_INTERVAL);
+    }
+
+    /**
+     * @param template StarPlan whose transport, caches and scheduler are shared by all sessions
+     * @param maxConcurrentLogins maximum number of logins running at the same time
+     * @param maxIdle sessions unused for longer are renewed before the next request,
+     *            should be below the session timeout of the server
+     * @param minLoginInterval minimum time between two logins of the same account,
+     *            so wrong credentials are not tried again and again
+     */
+    StarPlanSessionPool(StarPlan template, int maxConcurrentLogins, Duration maxIdle, Duration minLoginInterval) {
+        this.template = template;
+        this.maxIdleNanos = maxIdle.toNanos();
+        this.minLoginIntervalNanos = minLoginInterval.toNanos();
+        AtomicInteger threads = new AtomicInteger();
+        this.logins = Executors.newFixedThreadPool(maxConcurrentLogins, runnable -> {
+            Thread thread = new Thread(runnable, "starplan-login-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Adds an account or replaces its credentials. The login happens on the
+     * first request.
+     * @param username
+     * @param password
+     */
+    void addAccount(String username, String password) {
+        accounts.put(username, new Account(username, password, template.newSession()));
+    }
+
+    /**
+     * @param username
+     */
+    void removeAccount(String username) {
+        accounts.remove(username);
+    }
+
+    /**
+     * @return number of accounts
+     */
+    int size() {
+        return accounts.size();
+    }
+
+    /**
+     * Get the saved view parameters of an account
+     * @param username
+     * @return StarPlanResult with the saved view parameters, null if there are none
+     */
+    StarPlanResult<StarPlanMyView> getMyViewParameters(String username) {
+        return withSession(username, StarPlan::getMyViewParametersResult);
+    }
+
+    /**
+     * Runs a request with the logged in session of an account. If the session
+     * turns out to be expired, it logs in again and repeats the request once.
+     * @param username
+     * @param request called with the StarPlan of the account, may be called twice
+     * @return result of the request, or the error of the login
+     */
+    <T> StarPlanResult<T> withSession(String username, Function<StarPlan, StarPlanResult<T>> request) {
+        Account account = accounts.get(username);
+        if (account == null) {
+            return StarPlanResult.failed(new StarPlanError(StarPlanEndpoint.LOGIN,
+                    StarPlanError.Category.UNAUTHORIZED, 0, "Unknown account " + username, null));
+        }
+        Login login = login(account, -1);
+        StarPlanResult<Boolean> loggedIn = await(login);
+        if (!loggedIn.isOk()) {
+            return StarPlanResult.failed(loggedIn.error());
+        }
+        StarPlanResult<T> result = request.apply(account.session);
+        if (isExpired(account, result)) {
+            // renews only if no other caller has logged in since the request was sent
+            loggedIn = await(login(account, login.generation));
+            if (!loggedIn.isOk()) {
+                return StarPlanResult.failed(loggedIn.error());
+            }
+            result = request.apply(account.session);
+        }
+        account.lastUsed = System.nanoTime();
+        return result;
+    }
+
+    /**
+     * Returns the current login of the account or starts a new one
+     * @param expiredGeneration generation of a login whose session has expired, -1 if unknown
+     */
+    private Login login(Account account, int expiredGeneration) {
+        synchronized (account) {
+            long now = System.nanoTime();
+            Login login = account.login;
+            if (login != null) {
+                if (!login.result.isDone()) {
+                    return login;
+                }
+                boolean ok = login.result.join().isOk();
+                boolean renew = !ok || login.generation == expiredGeneration
+                        || account.session.isSessionExpired() || now - account.lastUsed > maxIdleNanos;
+                if (!renew || (!ok && now - account.loginStarted < minLoginIntervalNanos)) {
+                    return login;
+                }
+            }
+            int generation = login != null ? login.generation + 1 : 0;
+            account.loginStarted = now;
+            account.lastUsed = now;
+            account.login = new Login(generation, CompletableFuture.supplyAsync(
+                    () -> account.session.loginResult(account.username, account.password), logins));
+            return account.login;
+        }
+    }
+
+    private static boolean isExpired(Account account, StarPlanResult<?> result) {
+        return account.session.isSessionExpired() || (!result.isOk()
+                && result.error().category == StarPlanError.Category.UNAUTHORIZED);
+    }
+
+    private static StarPlanResult<Boolean> await(Login login) {
+        try {
+            return login.result.get();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return StarPlanResult.failed(StarPlanError.of(StarPlanEndpoint.LOGIN, e));
+        }
+    }
+
+    /**
+     * Stops the login threads, running logins are finished
+     */
+    @Override
+    public void close() {
+        logins.shutdown();
+    }
+}
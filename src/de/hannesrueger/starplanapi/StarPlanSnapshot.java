@@ -0,0 +1,423 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary snapshot of a crawled dataset (see StarPlanCrawler).
+ * All strings are stored once in a shared string table, semesters, study
+ * programs, groups, lectures and lessons are fixed-width records referring
+ * to it by index. A snapshot is opened with a MappedByteBuffer and records
+ * are only decoded when they are accessed, so a restarted process can serve
+ * queries right away.
+ *
+ * Layout (big endian): header, string offsets, string data (UTF-8), then the
+ * record sections in the order semesters, study programs, groups, lectures,
+ * lessons. A string index of -1 means null.
+ * @author Hannes Rüger
+ */
+class StarPlanSnapshot {
+    static final int MAGIC = 0x53504C4E; // "SPLN"
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 * 4 + 7 * 8 + 5 * 4;
+    private static final int SEMESTER_SIZE = 8 * 4;
+    private static final int STUDY_PROGRAM_SIZE = 5 * 4;
+    private static final int GROUP_SIZE = 7 * 4;
+    private static final int LECTURE_SIZE = 3 * 4;
+    private static final int LESSON_SIZE = 2 * 8 + 4 * 4;
+    private static final long NO_DATE = Long.MIN_VALUE;
+
+    private final ByteBuffer buffer;
+    private final int stringCount;
+    private final long stringOffsetsPos;
+    private final long stringDataPos;
+    private final int semesterCount;
+    private final int studyProgramCount;
+    private final int groupCount;
+    private final int lectureCount;
+    private final int lessonCount;
+    private final long semesterPos;
+    private final long studyProgramPos;
+    private final long groupPos;
+    private final long lecturePos;
+    private final long lessonPos;
+    /**
+     * Decoded strings, filled lazily. Races only decode a string twice.
+     */
+    private final String[] strings;
+
+    private StarPlanSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a StarPlan snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot version " + version);
+        }
+        stringCount = buffer.getInt(8);
+        stringOffsetsPos = buffer.getLong(16);
+        stringDataPos = buffer.getLong(24);
+        semesterPos = buffer.getLong(32);
+        studyProgramPos = buffer.getLong(40);
+        groupPos = buffer.getLong(48);
+        lecturePos = buffer.getLong(56);
+        lessonPos = buffer.getLong(64);
+        semesterCount = buffer.getInt(72);
+        studyProgramCount = buffer.getInt(76);
+        groupCount = buffer.getInt(80);
+        lectureCount = buffer.getInt(84);
+        lessonCount = buffer.getInt(88);
+        strings = new String[stringCount];
+    }
+
+    /**
+     * Maps a snapshot file into memory. Only the header is read.
+     * @param file
+     * @return the opened snapshot
+     */
+    static StarPlanSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot too large: " + channel.size());
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new StarPlanSnapshot(buffer);
+        }
+    }
+
+    /**
+     * Writes a snapshot atomically: the data is written to a temporary file
+     * in the same directory, synced and then moved over the target.
+     * @param file
+     * @param semesters the crawled dataset
+     */
+    static void write(Path file, List<CrawledSemester> semesters) throws IOException {
+        ByteBuffer data = encode(semesters);
+        Path dir = file.toAbsolutePath().getParent();
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    int semesterCount() {
+        return semesterCount;
+    }
+
+    int studyProgramCount() {
+        return studyProgramCount;
+    }
+
+    int groupCount() {
+        return groupCount;
+    }
+
+    int lessonCount() {
+        return lessonCount;
+    }
+
+    /**
+     * @param s index of the semester
+     */
+    StarPlanSemester semester(int s) {
+        int p = record(semesterPos, SEMESTER_SIZE, s, semesterCount);
+        int flags = buffer.getInt(p + 20);
+        return new StarPlanSemester((flags & 1) != 0, string(buffer.getInt(p + 16)), string(buffer.getInt(p + 4)),
+                buffer.getInt(p), string(buffer.getInt(p + 12)), string(buffer.getInt(p + 8)), (flags & 2) != 0);
+    }
+
+    /**
+     * @param s index of the semester
+     * @return index of the first study program of the semester
+     */
+    int firstStudyProgram(int s) {
+        return buffer.getInt(record(semesterPos, SEMESTER_SIZE, s, semesterCount) + 24);
+    }
+
+    /**
+     * @param s index of the semester
+     * @return number of study programs of the semester
+     */
+    int studyProgramCount(int s) {
+        return buffer.getInt(record(semesterPos, SEMESTER_SIZE, s, semesterCount) + 28);
+    }
+
+    /**
+     * @param p index of the study program
+     */
+    StarPlanStudyProgram studyProgram(int p) {
+        int pos = record(studyProgramPos, STUDY_PROGRAM_SIZE, p, studyProgramCount);
+        return new StarPlanStudyProgram(buffer.getInt(pos), string(buffer.getInt(pos + 4)),
+                string(buffer.getInt(pos + 8)));
+    }
+
+    /**
+     * @param p index of the study program
+     * @return index of the first group of the study program
+     */
+    int firstGroup(int p) {
+        return buffer.getInt(record(studyProgramPos, STUDY_PROGRAM_SIZE, p, studyProgramCount) + 12);
+    }
+
+    /**
+     * @param p index of the study program
+     * @return number of groups of the study program
+     */
+    int groupCount(int p) {
+        return buffer.getInt(record(studyProgramPos, STUDY_PROGRAM_SIZE, p, studyProgramCount) + 16);
+    }
+
+    /**
+     * @param g index of the group
+     * @return the group including its lectures
+     */
+    StarPlanGroup group(int g) {
+        int pos = record(groupPos, GROUP_SIZE, g, groupCount);
+        int first = buffer.getInt(pos + 12);
+        StarPlanLecture[] lectures = new StarPlanLecture[buffer.getInt(pos + 16)];
+        for (int i = 0; i < lectures.length; i++) {
+            int l = record(lecturePos, LECTURE_SIZE, first + i, lectureCount);
+            lectures[i] = new StarPlanLecture(buffer.getInt(l), string(buffer.getInt(l + 4)),
+                    string(buffer.getInt(l + 8)));
+        }
+        return new StarPlanGroup(buffer.getInt(pos), string(buffer.getInt(pos + 4)), string(buffer.getInt(pos + 8)),
+                lectures);
+    }
+
+    /**
+     * Finds a group by its StarPlan id, only the id column is read
+     * @param groupId
+     * @return index of the first group with the id, -1 if there is none
+     */
+    int findGroup(int groupId) {
+        for (int g = 0; g < groupCount; g++) {
+            if (buffer.getInt(record(groupPos, GROUP_SIZE, g, groupCount)) == groupId) {
+                return g;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param g index of the group
+     * @return the timetable of the group, null if it could not be crawled
+     */
+    StarPlanLesson[] lessons(int g) {
+        int pos = record(groupPos, GROUP_SIZE, g, groupCount);
+        int count = buffer.getInt(pos + 24);
+        if (count < 0) {
+            return null;
+        }
+        int first = buffer.getInt(pos + 20);
+        StarPlanLesson[] lessons = new StarPlanLesson[count];
+        for (int i = 0; i < count; i++) {
+            lessons[i] = lesson(first + i);
+        }
+        return lessons;
+    }
+
+    /**
+     * @param l global index of the lesson
+     */
+    StarPlanLesson lesson(int l) {
+        int pos = record(lessonPos, LESSON_SIZE, l, lessonCount);
+        StarPlanLesson lesson = new StarPlanLesson();
+        long start = buffer.getLong(pos);
+        long end = buffer.getLong(pos + 8);
+        lesson.start = start != NO_DATE ? new Date(start) : null;
+        lesson.end = end != NO_DATE ? new Date(end) : null;
+        lesson.summary = string(buffer.getInt(pos + 16));
+        lesson.id = string(buffer.getInt(pos + 20));
+        lesson.location = string(buffer.getInt(pos + 24));
+        lesson.description = string(buffer.getInt(pos + 28));
+        return lesson;
+    }
+
+    /**
+     * Decodes the whole tree of a semester
+     * @param s index of the semester
+     */
+    CrawledSemester toCrawledSemester(int s) {
+        List<CrawledStudyProgram> studyPrograms = new ArrayList<CrawledStudyProgram>();
+        int firstProgram = firstStudyProgram(s);
+        for (int p = firstProgram; p < firstProgram + studyProgramCount(s); p++) {
+            List<CrawledGroup> groups = new ArrayList<CrawledGroup>();
+            int first = firstGroup(p);
+            for (int g = first; g < first + groupCount(p); g++) {
+                groups.add(new CrawledGroup(group(g), lessons(g)));
+            }
+            studyPrograms.add(new CrawledStudyProgram(studyProgram(p), groups));
+        }
+        return new CrawledSemester(semester(s), studyPrograms);
+    }
+
+    private int record(long sectionPos, int size, int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Record " + index + " of " + count);
+        }
+        return (int) (sectionPos + (long) index * size);
+    }
+
+    private String string(int index) {
+        if (index < 0) {
+            return null;
+        }
+        String s = strings[index];
+        if (s == null) {
+            int from = buffer.getInt((int) stringOffsetsPos + index * 4);
+            int to = buffer.getInt((int) stringOffsetsPos + (index + 1) * 4);
+            byte[] bytes = new byte[to - from];
+            buffer.slice((int) stringDataPos + from, bytes.length).get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[index] = s;
+        }
+        return s;
+    }
+
+    /**
+     * Builds the whole file in memory
+     */
+    private static ByteBuffer encode(List<CrawledSemester> semesters) throws IOException {
+        StringTable table = new StringTable();
+        int programs = 0;
+        int groups = 0;
+        int lectures = 0;
+        int lessons = 0;
+        for (CrawledSemester semester : semesters) {
+            programs += semester.studyPrograms.size();
+            for (CrawledStudyProgram program : semester.studyPrograms) {
+                groups += program.groups.size();
+                for (CrawledGroup group : program.groups) {
+                    lectures += group.group.lectures != null ? group.group.lectures.length : 0;
+                    lessons += group.lessons != null ? group.lessons.length : 0;
+                }
+            }
+        }
+        // records refer to the string table, so collect it first
+        ByteBuffer records = ByteBuffer.allocate((int) checkedSize((long) semesters.size() * SEMESTER_SIZE
+                + (long) programs * STUDY_PROGRAM_SIZE + (long) groups * GROUP_SIZE
+                + (long) lectures * LECTURE_SIZE + (long) lessons * LESSON_SIZE));
+        int semesterPos = 0;
+        int programPos = semesterPos + semesters.size() * SEMESTER_SIZE;
+        int groupPos = programPos + programs * STUDY_PROGRAM_SIZE;
+        int lecturePos = groupPos + groups * GROUP_SIZE;
+        int lessonPos = lecturePos + lectures * LECTURE_SIZE;
+        int p = 0;
+        int g = 0;
+        int lec = 0;
+        int les = 0;
+        for (int s = 0; s < semesters.size(); s++) {
+            CrawledSemester semester = semesters.get(s);
+            StarPlanSemester sem = semester.semester;
+            records.position(semesterPos + s * SEMESTER_SIZE);
+            records.putInt(sem.id).putInt(table.index(sem.name)).putInt(table.index(sem.shortname))
+                    .putInt(table.index(sem.startdate)).putInt(table.index(sem.enddate))
+                    .putInt((sem.dateasdefault ? 1 : 0) | (sem.visibleonweb ? 2 : 0))
+                    .putInt(p).putInt(semester.studyPrograms.size());
+            for (CrawledStudyProgram program : semester.studyPrograms) {
+                records.position(programPos + p++ * STUDY_PROGRAM_SIZE);
+                records.putInt(program.studyProgram.id).putInt(table.index(program.studyProgram.name))
+                        .putInt(table.index(program.studyProgram.shortname)).putInt(g).putInt(program.groups.size());
+                for (CrawledGroup group : program.groups) {
+                    StarPlanLecture[] groupLectures = group.group.lectures != null ? group.group.lectures
+                            : new StarPlanLecture[0];
+                    records.position(groupPos + g++ * GROUP_SIZE);
+                    records.putInt(group.group.id).putInt(table.index(group.group.name))
+                            .putInt(table.index(group.group.shortname)).putInt(lec).putInt(groupLectures.length)
+                            .putInt(les).putInt(group.lessons != null ? group.lessons.length : -1);
+                    for (StarPlanLecture lecture : groupLectures) {
+                        records.position(lecturePos + lec++ * LECTURE_SIZE);
+                        records.putInt(lecture.id).putInt(table.index(lecture.name))
+                                .putInt(table.index(lecture.shortname));
+                    }
+                    if (group.lessons == null) {
+                        continue;
+                    }
+                    for (StarPlanLesson lesson : group.lessons) {
+                        records.position(lessonPos + les++ * LESSON_SIZE);
+                        records.putLong(lesson.start != null ? lesson.start.getTime() : NO_DATE)
+                                .putLong(lesson.end != null ? lesson.end.getTime() : NO_DATE)
+                                .putInt(table.index(lesson.summary)).putInt(table.index(lesson.id))
+                                .putInt(table.index(lesson.location)).putInt(table.index(lesson.description));
+                    }
+                }
+            }
+        }
+
+        long stringOffsetsPos = HEADER_SIZE;
+        long stringDataPos = stringOffsetsPos + 4L * (table.strings.size() + 1);
+        long recordsPos = stringDataPos + table.size;
+        ByteBuffer out = ByteBuffer.allocate((int) checkedSize(recordsPos + records.capacity()));
+        out.putInt(MAGIC).putInt(VERSION).putInt(table.strings.size()).putInt(0)
+                .putLong(stringOffsetsPos).putLong(stringDataPos)
+                .putLong(recordsPos + semesterPos).putLong(recordsPos + programPos).putLong(recordsPos + groupPos)
+                .putLong(recordsPos + lecturePos).putLong(recordsPos + lessonPos)
+                .putInt(semesters.size()).putInt(programs).putInt(groups).putInt(lectures).putInt(lessons);
+        int offset = 0;
+        for (byte[] string : table.strings) {
+            out.putInt(offset);
+            offset += string.length;
+        }
+        out.putInt(offset);
+        for (byte[] string : table.strings) {
+            out.put(string);
+        }
+        records.clear();
+        out.put(records);
+        out.flip();
+        return out;
+    }
+
+    private static long checkedSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Snapshot too large: " + size);
+        }
+        return size;
+    }
+
+    /**
+     * Interns strings while encoding
+     */
+    private static class StringTable {
+        final Map<String, Integer> indices = new HashMap<String, Integer>();
+        final List<byte[]> strings = new ArrayList<byte[]>();
+        long size;
+
+        int index(String s) {
+            if (s == null) {
+                return -1;
+            }
+            Integer index = indices.get(s);
+            if (index == null) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                index = strings.size();
+                strings.add(bytes);
+                indices.put(s, index);
+                size += bytes.length;
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport used by StarPlan to talk to the StarPlan website.
+ * Implementations have to be thread safe and should reuse connections.
+ * @author Hannes Rüger
+ */
+interface StarPlanTransport {
+    /**
+     * Sends the request and waits until the response headers are available
+     * @param request
+     * @return StarPlanResponse, the body has to be closed by the caller
+     */
+    StarPlanResponse send(StarPlanRequest request) throws IOException, InterruptedException;
+
+    /**
+     * Sends the request without blocking the calling thread
+     * @param request
+     * @return future completed as soon as the response headers are available
+     */
+    CompletableFuture<StarPlanResponse> sendAsync(StarPlanRequest request);
+}
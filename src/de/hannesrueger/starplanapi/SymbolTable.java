@@ -0,0 +1,78 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Dictionary of strings, e.g. of one LessonStore. Every distinct string is
+ * stored once and referenced by a dense int id, so the summaries, rooms and
+ * descriptions repeated across all groups of a semester cost one reference
+ * per lesson instead of one string. Ids are never reused, so a table only
+ * grows; it should live as long as the data referring to it, not longer.
+ * Adding is synchronized, lookups by id do not lock.
+ * @author Hannes Rüger
+ */
+class SymbolTable {
+    /**
+     * Id of null
+     */
+    static final int NONE = -1;
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+    private volatile String[] symbols = new String[256];
+    private volatile int size;
+
+    /**
+     * @param symbol
+     * @return id of the symbol, NONE for null; the symbol is added if it is new
+     */
+    synchronized int intern(String symbol) {
+        if (symbol == null) {
+            return NONE;
+        }
+        Integer id = ids.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        String[] current = symbols;
+        if (size == current.length) {
+            current = Arrays.copyOf(current, size * 2);
+        }
+        current[size] = symbol;
+        ids.put(symbol, size);
+        // publish the array before the new size
+        symbols = current;
+        return size++;
+    }
+
+    /**
+     * @param symbol
+     * @return id of the symbol, NONE if it is null or unknown
+     */
+    synchronized int find(String symbol) {
+        Integer id = symbol != null ? ids.get(symbol) : null;
+        return id != null ? id : NONE;
+    }
+
+    /**
+     * @param id
+     * @return the symbol, null for NONE
+     */
+    String get(int id) {
+        if (id == NONE) {
+            return null;
+        }
+        if (id >= size) {
+            throw new IndexOutOfBoundsException("Unknown symbol " + id);
+        }
+        return symbols[id];
+    }
+
+    /**
+     * @return number of symbols
+     */
+    int size() {
+        return size;
+    }
+}
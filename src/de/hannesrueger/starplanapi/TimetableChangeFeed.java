@@ -0,0 +1,187 @@
+package de.hannesrueger.starplanapi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * Detects added, removed and modified lessons between two versions of the
+ * timetables of groups. Lessons are matched by their ical UID and compared by
+ * a 64 bit fingerprint, so an unchanged lesson only costs a hash and a map
+ * lookup. Changes are published to listeners and to a Flow.Publisher.
+ * @author Hannes Rüger
+ */
+class TimetableChangeFeed implements AutoCloseable {
+    /**
+     * Receives the changes of one group update
+     */
+    interface Listener {
+        void onChanges(int groupId, List<TimetableChange> changes);
+    }
+
+    private static class GroupState {
+        Map<String, Long> fingerprints = new HashMap<String, Long>();
+        Map<String, StarPlanLesson> lessons = new HashMap<String, StarPlanLesson>();
+    }
+
+    private final Map<Integer, GroupState> groups = new ConcurrentHashMap<Integer, GroupState>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final SubmissionPublisher<TimetableChange> publisher = new SubmissionPublisher<TimetableChange>();
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Every change is submitted as a single item. Slow subscribers slow down
+     * update, see SubmissionPublisher.submit.
+     * @return publisher of all changes
+     */
+    Flow.Publisher<TimetableChange> publisher() {
+        return publisher;
+    }
+
+    /**
+     * Compares the new timetable of a group with the last known one and
+     * publishes the differences. The first update of a group reports all
+     * lessons as added.
+     * @param groupId
+     * @param lessons the complete new timetable of the group
+     * @return the changes, empty if nothing changed
+     */
+    List<TimetableChange> update(int groupId, StarPlanLesson[] lessons) {
+        GroupState state = groups.computeIfAbsent(groupId, id -> new GroupState());
+        List<TimetableChange> changes = new ArrayList<TimetableChange>();
+        synchronized (state) {
+            Map<String, Long> fingerprints = new HashMap<String, Long>(lessons.length * 2);
+            Map<String, StarPlanLesson> current = new HashMap<String, StarPlanLesson>(lessons.length * 2);
+            for (StarPlanLesson lesson : lessons) {
+                long fingerprint = fingerprint(lesson);
+                String uid = lesson.id != null ? lesson.id : "#" + Long.toHexString(fingerprint);
+                fingerprints.put(uid, fingerprint);
+                current.put(uid, lesson);
+                Long old = state.fingerprints.get(uid);
+                if (old == null) {
+                    changes.add(new TimetableChange(TimetableChange.Type.ADDED, groupId, uid, null, lesson));
+                } else if (old != fingerprint) {
+                    changes.add(new TimetableChange(TimetableChange.Type.MODIFIED, groupId, uid,
+                            state.lessons.get(uid), lesson));
+                }
+            }
+            for (Map.Entry<String, StarPlanLesson> old : state.lessons.entrySet()) {
+                if (!fingerprints.containsKey(old.getKey())) {
+                    changes.add(new TimetableChange(TimetableChange.Type.REMOVED, groupId, old.getKey(),
+                            old.getValue(), null));
+                }
+            }
+            state.fingerprints = fingerprints;
+            state.lessons = current;
+            if (!changes.isEmpty()) {
+                publish(groupId, changes);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Forgets the state of a group without publishing anything
+     * @param groupId
+     */
+    void forget(int groupId) {
+        groups.remove(groupId);
+    }
+
+    private void publish(int groupId, List<TimetableChange> changes) {
+        List<TimetableChange> unmodifiable = Collections.unmodifiableList(changes);
+        for (Listener listener : listeners) {
+            listener.onChanges(groupId, unmodifiable);
+        }
+        if (publisher.hasSubscribers()) {
+            for (TimetableChange change : changes) {
+                publisher.submit(change);
+            }
+        }
+    }
+
+    /**
+     * @return hash over start, end, summary, location and description
+     */
+    static long fingerprint(StarPlanLesson lesson) {
+        long h = 0x9E3779B97F4A7C15L;
+        h = mix(h, lesson.start != null ? lesson.start.getTime() : 0);
+        h = mix(h, lesson.end != null ? lesson.end.getTime() : 0);
+        h = mix(h, hash(lesson.summary));
+        h = mix(h, hash(lesson.location));
+        h = mix(h, hash(lesson.description));
+        return h;
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters, String.hashCode has only 32 bits
+     * and collides for simple edits
+     */
+    private static long hash(String value) {
+        if (value == null) {
+            return 0;
+        }
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001B3L;
+        }
+        return h;
+    }
+
+    private static long mix(long h, long value) {
+        h ^= value;
+        h *= 0xFF51AFD7ED558CCDL;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * Closes the publisher, subscribers receive onComplete
+     */
+    @Override
+    public void close() {
+        publisher.close();
+    }
+}
+
+/**
+ * A single change of a lesson, before is null for added lessons and after
+ * is null for removed ones
+ * @author Hannes Rüger
+ */
+class TimetableChange {
+    enum Type {
+        ADDED, REMOVED, MODIFIED
+    }
+
+    final Type type;
+    final int groupId;
+    final String uid;
+    final StarPlanLesson before;
+    final StarPlanLesson after;
+
+    TimetableChange(Type type, int groupId, String uid, StarPlanLesson before, StarPlanLesson after) {
+        this.type = type;
+        this.groupId = groupId;
+        this.uid = uid;
+        this.before = before;
+        this.after = after;
+    }
+
+    public String toString() {
+        return type + " group: " + groupId + " uid: " + uid + " before: " + before + " after: " + after;
+    }
+}
@@ -0,0 +1,317 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Builds personal timetables from lectures of several groups of a semester.
+ * The calendar of every group is loaded once and shared by all users. The
+ * lessons of a group are sorted by start once and every lesson gets the ids
+ * of its lecture name and summary in a SymbolTable holding the lecture names
+ * of the catalog, so it does not grow with reloaded calendars. The
+ * lectures a user chose from a group become a BitSet of these ids per group,
+ * so filtering is one bit test per lesson, and the filtered groups are
+ * merged by start without sorting again. Lessons are matched to a StarPlanLecture by its name or short
+ * name, the ical feed has no lecture ids.
+ * @author Hannes Rüger
+ */
+class TimetableComposer {
+    /**
+     * Lessons of a group sorted by start, with the symbol ids of their
+     * summary and lecture name
+     */
+    private static class GroupTimetable {
+        final StarPlanLesson[] lessons;
+        final int[] summaries;
+        final int[] lectures;
+
+        GroupTimetable(StarPlanLesson[] lessons, SymbolTable keys) {
+            this.lessons = Arrays.stream(lessons)
+                    .filter(lesson -> lesson != null && lesson.start != null)
+                    .sorted((a, b) -> a.start.compareTo(b.start))
+                    .toArray(StarPlanLesson[]::new);
+            this.summaries = new int[this.lessons.length];
+            this.lectures = new int[this.lessons.length];
+            for (int i = 0; i < this.lessons.length; i++) {
+                // only keys of catalog lectures can be selected, others are NONE
+                summaries[i] = keys.find(key(this.lessons[i].summary));
+                int lecture = keys.find(key(this.lessons[i].details().lecture));
+                // the same key twice would only cost a second bit test
+                lectures[i] = lecture != summaries[i] ? lecture : SymbolTable.NONE;
+            }
+        }
+
+        boolean matches(int i, BitSet selection) {
+            return (summaries[i] >= 0 && selection.get(summaries[i]))
+                    || (lectures[i] >= 0 && selection.get(lectures[i]));
+        }
+    }
+
+    private final StarPlan starPlan;
+    private final StarPlanSemester semester;
+    private final Map<Integer, StarPlanGroup> groups = new HashMap<Integer, StarPlanGroup>();
+    /**
+     * lecture id -> ids of the groups having the lecture, in catalog order
+     */
+    private final Map<Integer, int[]> lectureGroups = new HashMap<Integer, int[]>();
+    /**
+     * lecture id -> symbol ids of its name and short name
+     */
+    private final Map<Integer, int[]> lectureKeys = new HashMap<Integer, int[]>();
+    private final SymbolTable keys = new SymbolTable();
+    private final Map<Integer, CompletableFuture<GroupTimetable>> timetables =
+            new ConcurrentHashMap<Integer, CompletableFuture<GroupTimetable>>();
+
+    /**
+     * @param starPlan client loading the calendars of the groups
+     * @param semester
+     * @param groups all groups the lectures may come from, with their lectures
+     */
+    TimetableComposer(StarPlan starPlan, StarPlanSemester semester, StarPlanGroup[] groups) {
+        this.starPlan = starPlan;
+        this.semester = semester;
+        Map<Integer, List<Integer>> lectureGroups = new HashMap<Integer, List<Integer>>();
+        for (StarPlanGroup group : groups) {
+            this.groups.put(group.id, group);
+            if (group.lectures == null) {
+                continue;
+            }
+            for (StarPlanLecture lecture : group.lectures) {
+                lectureGroups.computeIfAbsent(lecture.id, id -> new ArrayList<Integer>()).add(group.id);
+                lectureKeys.computeIfAbsent(lecture.id, id -> Arrays.stream(
+                        new String[] { key(lecture.name), key(lecture.shortname) })
+                        .filter(key -> key != null).mapToInt(keys::intern).distinct().toArray());
+            }
+        }
+        for (Map.Entry<Integer, List<Integer>> lecture : lectureGroups.entrySet()) {
+            this.lectureGroups.put(lecture.getKey(),
+                    lecture.getValue().stream().mapToInt(Integer::intValue).distinct().toArray());
+        }
+    }
+
+    /**
+     * Builds the timetable of one user
+     * @param lectureIds ids of StarPlanLectures, unknown ids are ignored
+     * @return the lessons of the lectures ordered by start, each lesson once
+     */
+    StarPlanResult<StarPlanLesson[]> compose(int... lectureIds) {
+        return compose(groups(lectureIds));
+    }
+
+    /**
+     * Builds the timetables of many users. The calendars of all needed groups
+     * are requested at once before the first timetable is built.
+     * @param selections lecture ids per user
+     * @return the timetable per user, in the order of the selections
+     */
+    <K> Map<K, StarPlanResult<StarPlanLesson[]>> composeAll(Map<K, int[]> selections) {
+        Map<K, Map<Integer, List<Integer>>> groupsPerUser = new LinkedHashMap<K, Map<Integer, List<Integer>>>();
+        for (Map.Entry<K, int[]> selection : selections.entrySet()) {
+            Map<Integer, List<Integer>> chosen = groups(selection.getValue());
+            for (int groupId : chosen.keySet()) {
+                timetable(groupId);
+            }
+            groupsPerUser.put(selection.getKey(), chosen);
+        }
+        Map<K, StarPlanResult<StarPlanLesson[]>> timetables = new LinkedHashMap<K, StarPlanResult<StarPlanLesson[]>>();
+        for (Map.Entry<K, int[]> selection : selections.entrySet()) {
+            timetables.put(selection.getKey(), compose(groupsPerUser.get(selection.getKey())));
+        }
+        return timetables;
+    }
+
+    /**
+     * Streams the timetable of one user as ical. Nothing is written if a
+     * calendar could not be loaded.
+     * @param writer receives the calendar, not closed by this method
+     * @param name calendar name, may be null
+     * @param lectureIds ids of StarPlanLectures, unknown ids are ignored
+     * @return StarPlanResult with the number of lessons written
+     */
+    StarPlanResult<Integer> writeIcal(Writer writer, String name, int... lectureIds) {
+        Map<Integer, List<Integer>> chosen = groups(lectureIds);
+        StarPlanResult<GroupTimetable[]> sources = load(chosen.keySet());
+        if (!sources.isOk()) {
+            return StarPlanResult.failed(sources.error());
+        }
+        IcalWriter ical = new IcalWriter(writer, new Date());
+        try {
+            ical.begin(name);
+            IOException[] error = new IOException[1];
+            int count = merge(sources.value(), selections(chosen), lesson -> {
+                if (error[0] == null) {
+                    try {
+                        ical.write(lesson);
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            ical.end();
+            return StarPlanResult.ok(count);
+        } catch (IOException e) {
+            return StarPlanResult.failed(StarPlanError.of(StarPlanEndpoint.ICAL, e));
+        }
+    }
+
+    /**
+     * Drops the loaded calendars, they are loaded again when needed
+     */
+    void refresh() {
+        timetables.clear();
+    }
+
+    /**
+     * Drops the loaded calendar of a group
+     * @param groupId
+     */
+    void refresh(int groupId) {
+        timetables.remove(groupId);
+    }
+
+    private StarPlanResult<StarPlanLesson[]> compose(Map<Integer, List<Integer>> chosen) {
+        StarPlanResult<GroupTimetable[]> sources = load(chosen.keySet());
+        if (!sources.isOk()) {
+            return StarPlanResult.failed(sources.error());
+        }
+        List<StarPlanLesson> lessons = new ArrayList<StarPlanLesson>();
+        merge(sources.value(), selections(chosen), lessons::add);
+        return StarPlanResult.ok(lessons.toArray(new StarPlanLesson[0]));
+    }
+
+    /**
+     * A group only contributes the lectures chosen from it, a lecture of the
+     * same name in another chosen group is not selected
+     * @param chosen lecture ids per group id, as returned by groups
+     * @return the symbol ids of the names of the lectures per group, in the order of the groups
+     */
+    private BitSet[] selections(Map<Integer, List<Integer>> chosen) {
+        BitSet[] selections = new BitSet[chosen.size()];
+        int g = 0;
+        for (List<Integer> lectureIds : chosen.values()) {
+            BitSet selection = new BitSet(keys.size());
+            for (int lectureId : lectureIds) {
+                for (int key : lectureKeys.getOrDefault(lectureId, new int[0])) {
+                    selection.set(key);
+                }
+            }
+            selections[g++] = selection;
+        }
+        return selections;
+    }
+
+    /**
+     * Waits for the calendars of the groups
+     */
+    private StarPlanResult<GroupTimetable[]> load(Collection<Integer> groupIds) {
+        GroupTimetable[] sources = new GroupTimetable[groupIds.size()];
+        int g = 0;
+        for (int groupId : groupIds) {
+            CompletableFuture<GroupTimetable> timetable = timetable(groupId);
+            try {
+                sources[g++] = timetable.join();
+            } catch (RuntimeException e) {
+                // a failed calendar is loaded again by the next call, a newer load is kept
+                timetables.remove(groupId, timetable);
+                return StarPlanResult.failed(StarPlanError.of(StarPlanEndpoint.ICAL, e));
+            }
+        }
+        return StarPlanResult.ok(sources);
+    }
+
+    /**
+     * Merges the selected lessons of the groups by start
+     * @param selections symbol ids selected in each source
+     * @return number of lessons passed to the consumer
+     */
+    private static int merge(GroupTimetable[] sources, BitSet[] selections, Consumer<StarPlanLesson> consumer) {
+        // a lecture of several groups has the same lessons in each of them
+        Set<String> seen = sources.length > 1 ? new HashSet<String>() : null;
+        int[] positions = new int[sources.length];
+        int count = 0;
+        while (true) {
+            int next = -1;
+            for (int g = 0; g < sources.length; g++) {
+                GroupTimetable source = sources[g];
+                while (positions[g] < source.lessons.length && !source.matches(positions[g], selections[g])) {
+                    positions[g]++;
+                }
+                if (positions[g] < source.lessons.length && (next < 0 || source.lessons[positions[g]].start
+                        .before(sources[next].lessons[positions[next]].start))) {
+                    next = g;
+                }
+            }
+            if (next < 0) {
+                return count;
+            }
+            StarPlanLesson lesson = sources[next].lessons[positions[next]++];
+            if (seen == null || lesson.id == null || seen.add(lesson.id)) {
+                consumer.accept(lesson);
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Chooses one group per lecture. Groups which are already loaded or
+     * chosen for another lecture are preferred, so users share calendars and
+     * every user needs as few as possible.
+     * @return ids of the lectures chosen from each group by the ids of the groups to load
+     */
+    private Map<Integer, List<Integer>> groups(int[] lectureIds) {
+        Map<Integer, List<Integer>> chosen = new LinkedHashMap<Integer, List<Integer>>();
+        for (int lectureId : lectureIds) {
+            int[] candidates = lectureGroups.get(lectureId);
+            if (candidates == null) {
+                continue;
+            }
+            int best = candidates[0];
+            for (int candidate : candidates) {
+                if (chosen.containsKey(candidate)) {
+                    best = candidate;
+                    break;
+                }
+                if (timetables.containsKey(candidate) && !timetables.containsKey(best)) {
+                    best = candidate;
+                }
+            }
+            chosen.computeIfAbsent(best, id -> new ArrayList<Integer>()).add(lectureId);
+        }
+        return chosen;
+    }
+
+    private CompletableFuture<GroupTimetable> timetable(int groupId) {
+        return timetables.computeIfAbsent(groupId, id -> starPlan
+                .getTimeTableIcalAsync(semester, groups.get(id))
+                .thenApply(lessons -> new GroupTimetable(lessons, keys)));
+    }
+
+    /**
+     * @return the trimmed, lower case name, null if it is empty
+     */
+    private static String key(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.trim().toLowerCase(Locale.ROOT);
+        return key.isEmpty() ? null : key;
+    }
+}
@@ -0,0 +1,505 @@
+package de.hannesrueger.starplanapi;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded HTTP server publishing the timetables of groups and lecturers as
+ * ical and JSON feeds:
+ * /groups/{id}.ics, /groups/{id}.json, /lecturers/{name}.ics and
+ * /lecturers/{name}.json.
+ * A feed is rendered and gzipped once when its lessons change, requests only
+ * copy the stored bytes. Clients polling with If-None-Match get a 304 without
+ * a body. Clients without gzip support get the uncompressed feed, which is
+ * decompressed once on the first such request.
+ * The server never calls StarPlan itself, it is fed by update or as a
+ * listener of a TimetableChangeFeed.
+ * @author Hannes Rüger
+ */
+class TimetableFeedServer implements TimetableChangeFeed.Listener, AutoCloseable {
+    static final String ICAL_TYPE = "text/calendar; charset=utf-8";
+    static final String JSON_TYPE = "application/json; charset=utf-8";
+
+    /**
+     * A rendered feed, its content never changes after it is published
+     */
+    private static class Feed {
+        final byte[] gzip;
+        final int length;
+        final String etag;
+        final String contentType;
+        /**
+         * Uncompressed body, only kept once a client without gzip support asked for it
+         */
+        private byte[] identity;
+
+        Feed(byte[] body, String contentType) {
+            this.gzip = gzip(body);
+            this.length = body.length;
+            this.etag = etag(body);
+            this.contentType = contentType;
+        }
+
+        synchronized byte[] identity() throws IOException {
+            if (identity == null) {
+                try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+                    identity = in.readAllBytes();
+                }
+            }
+            return identity;
+        }
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    /**
+     * Rendered feeds by path, read without locking
+     */
+    private final Map<String, Feed> feeds = new ConcurrentHashMap<String, Feed>();
+    /**
+     * Current lessons per group by UID, guarded by this
+     */
+    private final Map<Integer, Map<String, StarPlanLesson>> groups = new HashMap<Integer, Map<String, StarPlanLesson>>();
+    /**
+     * Ids of the groups with lessons of a lecturer, guarded by this
+     */
+    private final Map<String, Set<Integer>> lecturerGroups = new HashMap<String, Set<Integer>>();
+    private final Map<Integer, String> groupNames = new ConcurrentHashMap<Integer, String>();
+    private volatile Date stamp = new Date();
+
+    /**
+     * Creates the server, it has to be started with start
+     * @param address e.g. new InetSocketAddress(8080), port 0 picks a free port
+     * @param threads number of threads answering requests
+     */
+    TimetableFeedServer(InetSocketAddress address, int threads) throws IOException {
+        server = HttpServer.create(address, 0);
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "starplan-feeds-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param groupId
+     * @param name shown as calendar name, e.g. the short name of the StarPlanGroup
+     */
+    void setGroupName(int groupId, String name) {
+        groupNames.put(groupId, name);
+    }
+
+    /**
+     * @return paths of all published feeds, sorted
+     */
+    String[] paths() {
+        return new TreeSet<String>(feeds.keySet()).toArray(new String[0]);
+    }
+
+    /**
+     * Replaces the lessons of a group. The feeds of the group and of the
+     * lecturers whose lessons changed are only rendered again if any lesson
+     * differs from the last update.
+     * @param groupId
+     * @param lessons the complete new timetable of the group
+     */
+    synchronized void update(int groupId, StarPlanLesson[] lessons) {
+        Map<String, StarPlanLesson> old = groups.get(groupId);
+        Map<String, StarPlanLesson> current = new HashMap<String, StarPlanLesson>(lessons.length * 2);
+        Set<String> lecturers = new HashSet<String>();
+        boolean changed = old == null;
+        for (StarPlanLesson lesson : lessons) {
+            String uid = uid(lesson);
+            current.put(uid, lesson);
+            StarPlanLesson before = old != null ? old.get(uid) : null;
+            if (before == null || TimetableChangeFeed.fingerprint(before) != TimetableChangeFeed.fingerprint(lesson)) {
+                changed = true;
+                lecturers.addAll(lecturers(before));
+                lecturers.addAll(lecturers(lesson));
+            }
+        }
+        if (old != null) {
+            for (Map.Entry<String, StarPlanLesson> lesson : old.entrySet()) {
+                if (!current.containsKey(lesson.getKey())) {
+                    changed = true;
+                    lecturers.addAll(lecturers(lesson.getValue()));
+                }
+            }
+        }
+        if (!changed) {
+            return;
+        }
+        publish(groupId, current, lecturers);
+    }
+
+    /**
+     * Applies the changes published by a TimetableChangeFeed, so the feeds
+     * follow a TimetablePoller
+     */
+    @Override
+    public synchronized void onChanges(int groupId, List<TimetableChange> changes) {
+        Map<String, StarPlanLesson> current = new HashMap<String, StarPlanLesson>(
+                groups.getOrDefault(groupId, new HashMap<String, StarPlanLesson>()));
+        Set<String> lecturers = new HashSet<String>();
+        for (TimetableChange change : changes) {
+            lecturers.addAll(lecturers(change.before));
+            lecturers.addAll(lecturers(change.after));
+            if (change.after != null) {
+                current.put(change.uid, change.after);
+            } else {
+                current.remove(change.uid);
+            }
+        }
+        publish(groupId, current, lecturers);
+    }
+
+    /**
+     * Removes a group and its feeds
+     * @param groupId
+     */
+    synchronized void removeGroup(int groupId) {
+        Map<String, StarPlanLesson> old = groups.remove(groupId);
+        if (old == null) {
+            return;
+        }
+        Set<String> lecturers = new HashSet<String>();
+        for (StarPlanLesson lesson : old.values()) {
+            lecturers.addAll(lecturers(lesson));
+        }
+        feeds.remove(groupPath(groupId, "ics"));
+        feeds.remove(groupPath(groupId, "json"));
+        for (String lecturer : lecturers) {
+            Set<Integer> ids = lecturerGroups.get(lecturer);
+            if (ids != null) {
+                ids.remove(groupId);
+            }
+            renderLecturer(lecturer);
+        }
+    }
+
+    private void publish(int groupId, Map<String, StarPlanLesson> lessons, Set<String> lecturers) {
+        groups.put(groupId, lessons);
+        stamp = new Date();
+        StarPlanLesson[] sorted = sorted(lessons.values().toArray(new StarPlanLesson[0]));
+        String name = groupNames.getOrDefault(groupId, String.valueOf(groupId));
+        feeds.put(groupPath(groupId, "ics"), new Feed(ical(name, sorted), ICAL_TYPE));
+        feeds.put(groupPath(groupId, "json"), new Feed(json(sorted), JSON_TYPE));
+        for (String lecturer : lecturers) {
+            Set<Integer> ids = lecturerGroups.computeIfAbsent(lecturer, l -> new HashSet<Integer>());
+            ids.add(groupId);
+            renderLecturer(lecturer);
+        }
+    }
+
+    /**
+     * Collects the lessons of a lecturer from all groups, a lesson shared by
+     * several groups is only included once
+     */
+    private void renderLecturer(String lecturer) {
+        Set<Integer> ids = lecturerGroups.get(lecturer);
+        Map<String, StarPlanLesson> lessons = new HashMap<String, StarPlanLesson>();
+        if (ids != null) {
+            for (int groupId : ids.toArray(new Integer[0])) {
+                boolean found = false;
+                for (StarPlanLesson lesson : groups.getOrDefault(groupId, new HashMap<String, StarPlanLesson>())
+                        .values()) {
+                    if (lecturers(lesson).contains(lecturer)) {
+                        lessons.putIfAbsent(uid(lesson), lesson);
+                        found = true;
+                    }
+                }
+                if (!found) {
+                    ids.remove(groupId);
+                }
+            }
+        }
+        String ics = lecturerPath(lecturer, "ics");
+        String json = lecturerPath(lecturer, "json");
+        if (lessons.isEmpty()) {
+            lecturerGroups.remove(lecturer);
+            feeds.remove(ics);
+            feeds.remove(json);
+            return;
+        }
+        StarPlanLesson[] sorted = sorted(lessons.values().toArray(new StarPlanLesson[0]));
+        feeds.put(ics, new Feed(ical(lecturer, sorted), ICAL_TYPE));
+        feeds.put(json, new Feed(json(sorted), JSON_TYPE));
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        // responses without body finish the exchange right away, the JDK server
+        // only keeps the connection open if the request has been read completely
+        exchange.getRequestBody().close();
+        String method = exchange.getRequestMethod();
+        boolean head = method.equals("HEAD");
+        if (!head && !method.equals("GET")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        Feed feed = feeds.get(exchange.getRequestURI().getPath());
+        if (feed == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        Headers request = exchange.getRequestHeaders();
+        boolean gzip = acceptsGzip(request.getFirst("Accept-Encoding"));
+        // the representations differ, so they need different entity tags
+        String etag = gzip ? "\"" + feed.etag + "-gzip\"" : "\"" + feed.etag + "\"";
+        Headers response = exchange.getResponseHeaders();
+        response.set("ETag", etag);
+        response.set("Vary", "Accept-Encoding");
+        response.set("Cache-Control", "no-cache");
+        if (matches(request.getFirst("If-None-Match"), feed.etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+        response.set("Content-Type", feed.contentType);
+        if (gzip) {
+            response.set("Content-Encoding", "gzip");
+        }
+        int length = gzip ? feed.gzip.length : feed.length;
+        if (head) {
+            response.set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(200, length);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(gzip ? feed.gzip : feed.identity());
+        }
+    }
+
+    /**
+     * @param header value of Accept-Encoding
+     * @return true if gzip, or * without an explicit gzip entry, has a q above 0
+     */
+    static boolean acceptsGzip(String header) {
+        if (header == null) {
+            return false;
+        }
+        double gzip = -1;
+        double any = -1;
+        for (String coding : header.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim();
+            if (name.equalsIgnoreCase("gzip")) {
+                gzip = quality(parts);
+            } else if (name.equals("*")) {
+                any = quality(parts);
+            }
+        }
+        // an explicit entry takes precedence over *
+        return (gzip >= 0 ? gzip : any) > 0;
+    }
+
+    /**
+     * @param parts coding and parameters of an Accept-Encoding entry
+     * @return the q parameter, 1 if it is missing or invalid
+     */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.regionMatches(true, 0, "q=", 0, 2)) {
+                try {
+                    double q = Double.parseDouble(parameter.substring(2).trim());
+                    return q >= 0 && q <= 1 ? q : 1;
+                } catch (NumberFormatException e) {
+                    return 1;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @param header value of If-None-Match
+     * @param etag entity tag of the feed without quotes and suffix
+     * @return true if the header contains any representation of the feed
+     */
+    static boolean matches(String header, String etag) {
+        if (header == null) {
+            return false;
+        }
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals("\"" + etag + "\"") || tag.equals("\"" + etag + "-gzip\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private byte[] ical(String name, StarPlanLesson[] lessons) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            IcalWriter.write(writer, name, stamp, lessons);
+        } catch (IOException e) {
+            // cannot happen for a ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the lessons as JSON array with the fields of the description
+     */
+    static byte[] json(StarPlanLesson[] lessons) {
+        StringBuilder json = new StringBuilder(lessons.length * 256 + 2);
+        json.append('[');
+        for (StarPlanLesson lesson : lessons) {
+            StarPlanLessonDescription details = lesson.details();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('{');
+            property(json, "uid", lesson.id).append(',');
+            json.append("\"start\":").append(lesson.start != null ? lesson.start.getTime() : null).append(',');
+            json.append("\"end\":").append(lesson.end != null ? lesson.end.getTime() : null).append(',');
+            property(json, "summary", lesson.summary).append(',');
+            property(json, "location", lesson.location).append(',');
+            property(json, "lecturer", details.lecturer).append(',');
+            property(json, "type", details.type).append(',');
+            property(json, "course", details.course).append(',');
+            property(json, "lecture", details.lecture).append(',');
+            property(json, "description", lesson.description);
+            json.append('}');
+        }
+        json.append(']');
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static StringBuilder property(StringBuilder json, String name, String value) {
+        json.append('"').append(name).append("\":");
+        if (value == null) {
+            return json.append("null");
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c == '\n') {
+                json.append("\\n");
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    private static StarPlanLesson[] sorted(StarPlanLesson[] lessons) {
+        Arrays.sort(lessons, (a, b) -> {
+            long x = a.start != null ? a.start.getTime() : Long.MIN_VALUE;
+            long y = b.start != null ? b.start.getTime() : Long.MIN_VALUE;
+            return x != y ? Long.compare(x, y) : String.valueOf(a.id).compareTo(String.valueOf(b.id));
+        });
+        return lessons;
+    }
+
+    /**
+     * @return the lecturers of a lesson, several are separated by ','
+     */
+    private static List<String> lecturers(StarPlanLesson lesson) {
+        String lecturer = lesson != null ? lesson.details().lecturer : null;
+        return lecturer != null ? StarPlanLesson.splitList(lecturer) : List.of();
+    }
+
+    private static String uid(StarPlanLesson lesson) {
+        return lesson.id != null ? lesson.id : "#" + Long.toHexString(TimetableChangeFeed.fingerprint(lesson));
+    }
+
+    static String groupPath(int groupId, String extension) {
+        return "/groups/" + groupId + "." + extension;
+    }
+
+    /**
+     * @param lecturer
+     * @param extension
+     * @return the decoded path, clients request it URL encoded like /lecturers/Prof.%20Dr.%20X.ics
+     */
+    static String lecturerPath(String lecturer, String extension) {
+        return "/lecturers/" + lecturer + "." + extension;
+    }
+
+    private static byte[] gzip(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body);
+        } catch (IOException e) {
+            // cannot happen for a ByteArrayOutputStream
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static String etag(byte[] body) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(body);
+            StringBuilder etag = new StringBuilder(32);
+            for (int i = 0; i < 16; i++) {
+                etag.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return etag.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every JRE has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Stops the server, running requests get one second to finish
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,85 @@
+package de.hannesrueger.starplanapi;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the timetables of groups and feeds them into a TimetableChangeFeed.
+ * The groups are spread evenly across the polling interval, so the server
+ * sees a constant request rate instead of a burst every interval.
+ * @author Hannes Rüger
+ */
+class TimetablePoller implements AutoCloseable {
+    private final StarPlan starPlan;
+    private final TimetableChangeFeed feed;
+    private final long intervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<ScheduledFuture<?>>();
+
+    /**
+     * @param starPlan client used to load the timetables, they are sent with BACKGROUND priority
+     * @param feed receives every loaded timetable
+     * @param interval time between two polls of the same group
+     * @param threads number of threads loading timetables
+     */
+    TimetablePoller(StarPlan starPlan, TimetableChangeFeed feed, Duration interval, int threads) {
+        this.starPlan = starPlan.withPriority(StarPlanScheduler.Priority.BACKGROUND);
+        this.feed = feed;
+        this.intervalMillis = interval.toMillis();
+        this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "starplan-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts polling the groups, group i of n is first polled after
+     * i / n of the interval
+     * @param semester
+     * @param groups
+     */
+    synchronized void start(StarPlanSemester semester, List<StarPlanGroup> groups) {
+        for (int i = 0; i < groups.size(); i++) {
+            StarPlanGroup group = groups.get(i);
+            long delay = intervalMillis * i / groups.size();
+            tasks.add(scheduler.scheduleAtFixedRate(() -> poll(semester, group), delay, intervalMillis,
+                    TimeUnit.MILLISECONDS));
+        }
+    }
+
+    /**
+     * Stops polling all groups, the poller can be started again
+     */
+    synchronized void stop() {
+        for (ScheduledFuture<?> task : tasks) {
+            task.cancel(false);
+        }
+        tasks.clear();
+    }
+
+    private void poll(StarPlanSemester semester, StarPlanGroup group) {
+        try {
+            // a failed request has already been reported to the metrics listener
+            StarPlanResult<StarPlanLesson[]> lessons = starPlan.getTimeTableIcalResult(semester, group);
+            // keep the last known state if the request failed
+            if (lessons.isOk()) {
+                feed.update(group.id, lessons.value());
+            }
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task, e.g. one thrown by a feed listener
+            starPlan.getMetricsListener().onError(StarPlanError.of(StarPlanEndpoint.ICAL, e));
+        }
+    }
+
+    @Override
+    public void close() {
+        stop();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,330 @@
+package de.hannesrueger.starplanapi;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helper class to parse the html week view of the getTT endpoint
+ * The page is scanned once from start to end without regular expressions,
+ * searches inside a tag or element never look beyond its end.
+ * The day columns ("ttweekdaycell") give the date and the horizontal range
+ * of every day, an event ("ttevent") belongs to the column containing its
+ * left position. The lines of an event are separated by br tags: time,
+ * lecture, room, lecturer and type. Missing lines stay null, any number of
+ * day columns is supported.
+ * @author Hannes Rüger
+ */
+class WeekHtmlParser {
+    private static final String DAY_CLASS = "ttweekdaycell";
+    private static final String EVENT_CLASS = "ttevent";
+
+    private String html;
+    private final StringBuilder text = new StringBuilder(64);
+    private final List<String> lines = new ArrayList<String>(6);
+
+    /**
+     * Parses a week view
+     * @param html body of the getTT response
+     * @return the lessons in page order
+     */
+    public StarPlanWeekLesson[] parse(String html) {
+        this.html = html;
+        List<int[]> columns = new ArrayList<int[]>();
+        List<LocalDate> dates = new ArrayList<LocalDate>();
+        List<StarPlanWeekLesson> lessons = new ArrayList<StarPlanWeekLesson>();
+        List<Integer> lefts = new ArrayList<Integer>();
+        int pos = 0;
+        while ((pos = html.indexOf("<div", pos)) >= 0) {
+            int tagEnd = html.indexOf('>', pos);
+            if (tagEnd < 0) {
+                break;
+            }
+            String cssClass = attribute(pos, tagEnd, "class");
+            if (cssClass == null) {
+                pos = tagEnd + 1;
+            } else if (cssClass.equals(DAY_CLASS)) {
+                String style = attribute(pos, tagEnd, "style");
+                int end = end(tagEnd);
+                columns.add(new int[] { style(style, "left:"), style(style, "width:") });
+                dates.add(date(tagEnd, end));
+                pos = end;
+            } else if (cssClass.startsWith(EVENT_CLASS)) {
+                int end = end(tagEnd);
+                lessons.add(event(pos, tagEnd, end));
+                lefts.add(style(attribute(pos, tagEnd, "style"), "left:"));
+                pos = end;
+            } else {
+                pos = tagEnd + 1;
+            }
+        }
+        for (int i = 0; i < lessons.size(); i++) {
+            int day = day(columns, lefts.get(i));
+            lessons.get(i).day = day;
+            lessons.get(i).date = day >= 0 ? dates.get(day) : null;
+        }
+        this.html = null;
+        return lessons.toArray(new StarPlanWeekLesson[0]);
+    }
+
+    /**
+     * @return index of the column containing left, -1 if there is none
+     */
+    private static int day(List<int[]> columns, int left) {
+        for (int i = 0; i < columns.size(); i++) {
+            int[] column = columns.get(i);
+            if (left >= column[0] && left < column[0] + column[1]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the lines of an event
+     */
+    private StarPlanWeekLesson event(int tagStart, int tagEnd, int end) {
+        StarPlanWeekLesson lesson = new StarPlanWeekLesson();
+        lesson.id = attribute(tagStart, tagEnd, "data-id");
+        int pos = tagEnd + 1;
+        // the tooltip repeats the lecture
+        if (html.startsWith("<div class=\"tooltip\"", pos)) {
+            int close = indexOf("</div>", pos, end);
+            pos = close >= 0 ? close + "</div>".length() : pos;
+        }
+        lines(pos, end);
+        if (lines.size() > 0) {
+            time(lesson, lines.get(0));
+        }
+        lesson.lecture = line(1);
+        lesson.room = line(2);
+        lesson.lecturer = line(3);
+        lesson.type = line(4);
+        return lesson;
+    }
+
+    private String line(int i) {
+        return i < lines.size() && !lines.get(i).isEmpty() ? lines.get(i) : null;
+    }
+
+    /**
+     * Splits the text between from and to at br tags and at the start of
+     * nested divs, other tags are dropped and entities are decoded
+     */
+    private void lines(int from, int to) {
+        lines.clear();
+        text.setLength(0);
+        int i = from;
+        while (i < to) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int close = indexOf(">", i, to);
+                if (close < 0) {
+                    break;
+                }
+                if (html.startsWith("<br", i)) {
+                    lines.add(text.toString().trim());
+                    text.setLength(0);
+                } else if (html.startsWith("<div", i)) {
+                    // footer
+                    break;
+                }
+                i = close + 1;
+            } else if (c == '&') {
+                i = entity(i, to);
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+        if (text.toString().trim().length() > 0) {
+            lines.add(text.toString().trim());
+        }
+    }
+
+    /**
+     * Decodes the entity at i into the text buffer
+     * @return index after the entity
+     */
+    private int entity(int i, int to) {
+        int semicolon = -1;
+        for (int j = i + 1; j < Math.min(i + 10, to); j++) {
+            if (html.charAt(j) == ';') {
+                semicolon = j;
+                break;
+            }
+        }
+        if (semicolon < 0) {
+            text.append('&');
+            return i + 1;
+        }
+        String name = html.substring(i + 1, semicolon);
+        switch (name) {
+            case "amp":
+                text.append('&');
+                break;
+            case "lt":
+                text.append('<');
+                break;
+            case "gt":
+                text.append('>');
+                break;
+            case "quot":
+                text.append('"');
+                break;
+            case "apos":
+                text.append('\'');
+                break;
+            case "nbsp":
+                text.append(' ');
+                break;
+            default:
+                try {
+                    if (name.startsWith("#x") || name.startsWith("#X")) {
+                        text.appendCodePoint(Integer.parseInt(name.substring(2), 16));
+                    } else if (name.startsWith("#")) {
+                        text.appendCodePoint(Integer.parseInt(name.substring(1)));
+                    } else {
+                        text.append('&').append(name).append(';');
+                    }
+                } catch (IllegalArgumentException e) {
+                    text.append('&').append(name).append(';');
+                }
+        }
+        return semicolon + 1;
+    }
+
+    /**
+     * Parses "10:00 - 11:30"
+     */
+    private static void time(StarPlanWeekLesson lesson, String time) {
+        int dash = time.indexOf('-');
+        try {
+            if (dash < 0) {
+                lesson.start = LocalTime.parse(time.trim());
+            } else {
+                lesson.start = LocalTime.parse(time.substring(0, dash).trim());
+                lesson.end = LocalTime.parse(time.substring(dash + 1).trim());
+            }
+        } catch (DateTimeParseException e) {
+            // not a time, the event has no time line
+            lesson.start = null;
+            lesson.end = null;
+        }
+    }
+
+    /**
+     * @return the date of the data-date attribute inside a day column
+     */
+    private LocalDate date(int from, int to) {
+        int attribute = indexOf("data-date=\"", from, to);
+        if (attribute < 0) {
+            return null;
+        }
+        int start = attribute + "data-date=\"".length();
+        int end = indexOf("\"", start, to);
+        try {
+            return end > 0 ? LocalDate.parse(html.substring(start, end)) : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the end of a day column or event: the closing tags of its
+     * nested divs, or the next column or event
+     */
+    private int end(int tagEnd) {
+        int depth = 1;
+        int pos = tagEnd + 1;
+        int open = -1;
+        int close = -1;
+        while (depth > 0) {
+            // the next opening and closing tags are only searched again once they have been passed,
+            // so every character is looked at once
+            if (open != Integer.MAX_VALUE && open < pos) {
+                open = html.indexOf("<div", pos);
+                if (open < 0) {
+                    open = Integer.MAX_VALUE;
+                }
+            }
+            if (close < pos) {
+                close = html.indexOf("</div>", pos);
+                if (close < 0) {
+                    return html.length();
+                }
+            }
+            if (open < close) {
+                depth++;
+                pos = open + 4;
+            } else {
+                depth--;
+                pos = close + "</div>".length();
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * @return value of the attribute of the tag between start and end, null if it is missing
+     */
+    private String attribute(int start, int end, String name) {
+        int pos = start;
+        while (true) {
+            pos = indexOf(name, pos, end);
+            if (pos < 0) {
+                return null;
+            }
+            char before = html.charAt(pos - 1);
+            int quote = pos + name.length() + 1;
+            if ((before == ' ' || before == '\t' || before == '\n') && quote < end
+                    && html.charAt(pos + name.length()) == '=' && html.charAt(quote) == '"') {
+                int close = indexOf("\"", quote + 1, end);
+                return close > 0 ? html.substring(quote + 1, close) : null;
+            }
+            pos += name.length();
+        }
+    }
+
+    /**
+     * Like String.indexOf, but the match has to end before to
+     * @return index of the first match in [from, to), -1 if there is none
+     */
+    private int indexOf(String value, int from, int to) {
+        char first = value.charAt(0);
+        for (int i = from; i + value.length() <= to; i++) {
+            if (html.charAt(i) == first && html.startsWith(value, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the pixels of a property like "left:" in a style attribute, 0 if it is missing
+     */
+    private static int style(String style, String property) {
+        if (style == null) {
+            return 0;
+        }
+        int pos = style.indexOf(property);
+        if (pos < 0) {
+            return 0;
+        }
+        pos += property.length();
+        while (pos < style.length() && style.charAt(pos) == ' ') {
+            pos++;
+        }
+        boolean negative = pos < style.length() && style.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        int value = 0;
+        while (pos < style.length() && Character.isDigit(style.charAt(pos))) {
+            value = value * 10 + (style.charAt(pos++) - '0');
+        }
+        return negative ? -value : value;
+    }
+}